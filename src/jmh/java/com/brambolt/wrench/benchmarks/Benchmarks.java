@@ -0,0 +1,78 @@
+package com.brambolt.wrench.benchmarks;
+
+import groovy.lang.Closure;
+import groovy.lang.GroovyShell;
+import org.gradle.api.Project;
+import org.gradle.testfixtures.ProjectBuilder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Fixtures shared by the benchmarks.
+ */
+final class Benchmarks {
+
+    private Benchmarks() {}
+
+    /**
+     * Creates an empty project in a new temporary directory.
+     *
+     * @return The project
+     */
+    static Project createProject() {
+        try {
+            File projectDir = Files.createTempDirectory("wrench-benchmark").toFile();
+            Project project = ProjectBuilder.builder()
+                .withName("benchmark")
+                .withProjectDir(projectDir)
+                .build();
+            project.setGroup("com.example.triggers");
+            project.setVersion("1.0.0");
+            return project;
+        } catch (IOException x) {
+            throw new UncheckedIOException(x);
+        }
+    }
+
+    /**
+     * Returns host names like those in the instance properties.
+     *
+     * @param size The number of host names
+     * @return The host names
+     */
+    static List<String> hostNames(int size) {
+        List<String> names = new ArrayList<>(size);
+        for (int i = 0; i < size; ++i)
+            names.add(String.format("app%05d", i));
+        return names;
+    }
+
+    /**
+     * Returns runbook node names like those in the wrench files, some with
+     * the separators that are camel cased away.
+     *
+     * @param size The number of node names
+     * @return The node names
+     */
+    static List<String> nodeNames(int size) {
+        List<String> names = new ArrayList<>(size);
+        for (int i = 0; i < size; ++i)
+            names.add(0 == i % 2 ? "install-service-" + i : "restart;service;" + i);
+        return names;
+    }
+
+    /**
+     * Evaluates a closure literal.
+     *
+     * @param source The closure source, or statements returning a closure
+     * @return The closure
+     */
+    static Closure<?> closure(String source) {
+        return (Closure<?>) new GroovyShell().evaluate(source);
+    }
+}
@@ -0,0 +1,113 @@
+package com.brambolt.wrench.benchmarks;
+
+import com.brambolt.wrench.staging.PlanStaging;
+import com.brambolt.wrench.staging.tasks.GenerateGradleProperties;
+import com.brambolt.wrench.template.Template;
+import com.brambolt.wrench.template.Templates;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the staging model work done for every host or runbook node:
+ * formatting the delegating and staged task names, building the nested
+ * target maps of <code>configureBuild</code>, merging the staged
+ * <code>gradle.properties</code> and rendering the staged build file.
+ *
+ * Each benchmark operation covers <code>size</code> hosts or nodes.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class StagingModelBenchmark {
+
+    @Param({"10", "100", "1000", "10000"})
+    public int size;
+
+    private List<String> hostNames;
+
+    private List<String> nodeNames;
+
+    private File targetDir;
+
+    private String properties;
+
+    private Map<String, String> propertyDefaults;
+
+    private List<Map<String, String>> bindings;
+
+    private Template buildTemplate;
+
+    @Setup
+    public void setup() {
+        hostNames = Benchmarks.hostNames(size);
+        nodeNames = Benchmarks.nodeNames(size);
+        targetDir = new File("build/staging");
+        // Half the defaults are assigned by the source file already:
+        StringBuilder content = new StringBuilder();
+        propertyDefaults = new LinkedHashMap<>();
+        for (int i = 0; i < size; ++i) {
+            if (0 == i % 2)
+                content.append("property").append(i).append("=value").append(i).append('\n');
+            propertyDefaults.put("property" + i, "default" + i);
+        }
+        properties = content.toString();
+        bindings = new ArrayList<>(size);
+        for (String hostName: hostNames) {
+            Map<String, String> target = new HashMap<>();
+            target.put("environmentName", "dev");
+            target.put("hostName", hostName);
+            bindings.add(target);
+        }
+        buildTemplate = Templates.fromResource(PlanStaging.BUILD_TEMPLATE_PATH, Template.Syntax.TOKEN);
+    }
+
+    @Benchmark
+    public void formatDelegateTaskNames(Blackhole blackhole) {
+        for (String nodeName: nodeNames)
+            blackhole.consume(PlanStaging.formatDelegateTaskName("runCheckpoint", nodeName));
+    }
+
+    @Benchmark
+    public void formatStagedTaskNames(Blackhole blackhole) {
+        for (String nodeName: nodeNames)
+            blackhole.consume(PlanStaging.formatStagedTaskName("checkpoint", nodeName));
+    }
+
+    @Benchmark
+    public void createTargets(Blackhole blackhole) {
+        for (String hostName: hostNames)
+            blackhole.consume(PlanStaging.createTarget(targetDir, "dev", hostName));
+    }
+
+    @Benchmark
+    public String mergeGradleProperties() {
+        return GenerateGradleProperties.merge(properties, propertyDefaults);
+    }
+
+    @Benchmark
+    public void renderBuildFiles(Blackhole blackhole) {
+        for (Map<String, String> target: bindings)
+            blackhole.consume(buildTemplate.render(target));
+    }
+}
@@ -0,0 +1,130 @@
+package com.brambolt.wrench.benchmarks;
+
+import com.brambolt.wrench.template.Template;
+import com.brambolt.wrench.template.Templates;
+import com.brambolt.wrench.trigger.RepositorySpec;
+import com.brambolt.wrench.trigger.TriggerSpec;
+import com.brambolt.wrench.trigger.TriggersBuildPlugin;
+import com.brambolt.wrench.trigger.TriggersExtension;
+import groovy.lang.Closure;
+import org.codehaus.groovy.runtime.InvokerHelper;
+import org.gradle.api.Project;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the trigger model work done for every host: creating the
+ * trigger specs, dispatching the repository DSL methods through the
+ * repository proxy and the extension, creating the Velocity contexts and
+ * rendering the trigger build files.
+ *
+ * Each benchmark operation covers <code>size</code> hosts, repositories or
+ * DSL calls.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class TriggerModelBenchmark {
+
+    static final String BUILD_TEMPLATE_PATH = "com/brambolt/wrench/trigger/build.gradle.vtl";
+
+    @Param({"10", "100", "1000", "10000"})
+    public int size;
+
+    private Project project;
+
+    private List<String> hostNames;
+
+    private TriggersExtension extension;
+
+    private List<TriggerSpec> triggerSpecs;
+
+    private Map<String, Object> sharedContext;
+
+    private List<Map<String, String>> contexts;
+
+    private Template buildTemplate;
+
+    private Closure<?> repositoryCalls;
+
+    private Closure<?> emptyRepository;
+
+    @Setup
+    public void setup() {
+        project = Benchmarks.createProject();
+        hostNames = Benchmarks.hostNames(size);
+        extension = new TriggersExtension(project);
+        extension.baseDirectory("/opt/triggers");
+        extension.releaseArtifact("release");
+        extension.stagingArtifact("staging");
+        extension.stagingTask("stage");
+        RepositorySpec repositorySpec = new RepositorySpec(extension, "triggers");
+        repositorySpec.contextUrl("https://repo.example.com/maven");
+        repositorySpec.repoKey("triggers");
+        triggerSpecs = new ArrayList<>(size);
+        for (String hostName: hostNames)
+            triggerSpecs.add(repositorySpec.createHost(hostName));
+        sharedContext = TriggersBuildPlugin.createSharedContext(project);
+        contexts = new ArrayList<>(size);
+        for (TriggerSpec triggerSpec: triggerSpecs)
+            contexts.add(TriggersBuildPlugin.toContext(
+                TriggersBuildPlugin.createVelocityContext(sharedContext, triggerSpec)));
+        buildTemplate = Templates.fromResource(BUILD_TEMPLATE_PATH, Template.Syntax.REFERENCE);
+        // Local variables, since the proxy takes any unknown property to be a host:
+        repositoryCalls = Benchmarks.closure(
+            "int count = " + size + "; "
+                + "return { -> count.times { contextUrl 'https://repo.example.com/maven'; repoKey 'triggers' } }");
+        emptyRepository = Benchmarks.closure("{ -> }");
+    }
+
+    @Benchmark
+    public RepositorySpec createTriggerSpecs() {
+        RepositorySpec repositorySpec = new RepositorySpec(extension, "triggers");
+        for (String hostName: hostNames)
+            repositorySpec.createHost(hostName);
+        return repositorySpec;
+    }
+
+    @Benchmark
+    public RepositorySpec dispatchRepositoryMethods() {
+        return new RepositorySpec(extension, "triggers").configure(repositoryCalls);
+    }
+
+    @Benchmark
+    public TriggersExtension dispatchExtensionMethods() {
+        TriggersExtension triggers = new TriggersExtension(project);
+        for (int i = 0; i < size; ++i)
+            InvokerHelper.invokeMethod(triggers, "repository" + i, new Object[] { emptyRepository });
+        return triggers;
+    }
+
+    @Benchmark
+    public void createVelocityContexts(Blackhole blackhole) {
+        for (TriggerSpec triggerSpec: triggerSpecs)
+            blackhole.consume(TriggersBuildPlugin.createVelocityContext(sharedContext, triggerSpec));
+    }
+
+    @Benchmark
+    public void renderTriggerBuildFiles(Blackhole blackhole) {
+        for (Map<String, String> context: contexts)
+            blackhole.consume(buildTemplate.render(context));
+    }
+}
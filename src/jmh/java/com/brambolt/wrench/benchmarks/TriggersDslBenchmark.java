@@ -0,0 +1,81 @@
+package com.brambolt.wrench.benchmarks;
+
+import com.brambolt.wrench.trigger.AggregateTriggers;
+import com.brambolt.wrench.trigger.RepositorySpec;
+import com.brambolt.wrench.trigger.TriggersBuildPlugin;
+import com.brambolt.wrench.trigger.TriggersExtension;
+import groovy.lang.Closure;
+import org.codehaus.groovy.runtime.InvokerHelper;
+import org.gradle.api.Project;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures evaluating a triggers block with thousands of hosts: the
+ * extension dispatches the repository closure, and the repository proxy
+ * dispatches the repository methods and creates and configures a trigger
+ * for every host block.
+ *
+ * The extension is in aggregated mode, so all hosts share the one
+ * aggregate task of the repository, created up front, and the measurement
+ * is of the DSL rather than of task creation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class TriggersDslBenchmark {
+
+    static final String REPOSITORY_NAME = "triggers";
+
+    @Param({"5000"})
+    public int size;
+
+    private Project project;
+
+    private AggregateTriggers aggregateTriggers;
+
+    private Closure<?> repository;
+
+    @Setup
+    public void setup() {
+        project = Benchmarks.createProject();
+        TriggersBuildPlugin.createExtension(project);
+        TriggersExtension extension = TriggersBuildPlugin.getExtension(project);
+        extension.aggregated(true);
+        aggregateTriggers = project.getTasks().create(
+            TriggersBuildPlugin.getAggregateTriggersTaskName(new RepositorySpec(extension, REPOSITORY_NAME)),
+            AggregateTriggers.class);
+        // The context URL is a GString, and each host has its own block:
+        repository = Benchmarks.closure(
+            "int count = " + size + "; String host = 'repo.example.com'; "
+                + "return { -> contextUrl \"https://${host}/maven\"; repoKey 'triggers'; "
+                + "count.times { int i -> \"app${i}\" { } } }");
+    }
+
+    @Setup(Level.Invocation)
+    public void clearTriggers() {
+        aggregateTriggers.getContexts().empty();
+    }
+
+    @Benchmark
+    public TriggersExtension evaluateTriggers() {
+        TriggersExtension triggers = new TriggersExtension(project);
+        InvokerHelper.invokeMethod(triggers, REPOSITORY_NAME, new Object[] { repository });
+        return triggers;
+    }
+}
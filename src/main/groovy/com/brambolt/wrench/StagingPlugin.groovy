@@ -6,6 +6,9 @@ import com.brambolt.wrench.staging.CompositeStaging
 import com.brambolt.wrench.staging.PlanStaging
 import org.gradle.api.Plugin
 import org.gradle.api.Project
+import org.gradle.build.event.BuildEventsListenerRegistry
+
+import javax.inject.Inject
 
 /**
  * This build prepares and publishes wrenches.
@@ -28,6 +31,13 @@ class StagingPlugin implements Plugin<Project> {
 
   String gradleWrapperPath = DEFAULT_STAGING_RELPATH
 
+  private final BuildEventsListenerRegistry buildEvents
+
+  @Inject
+  StagingPlugin(BuildEventsListenerRegistry buildEvents) {
+    this.buildEvents = buildEvents
+  }
+
   /**
    * Applies the plug-in to the parameter project.
    * @param project The project to apply the plug-in to
@@ -37,7 +47,8 @@ class StagingPlugin implements Plugin<Project> {
       new PlanStaging(
         wrenchFileName: runbookFilename,
         wrenchFile: runbookFile,
-        stagingRelpath: gradleWrapperPath)
+        stagingRelpath: gradleWrapperPath,
+        buildEvents: buildEvents)
         .apply(project)
     else
       new CompositeStaging().apply(project)
@@ -0,0 +1,136 @@
+package com.brambolt.wrench.staging
+
+import org.gradle.api.GradleException
+import org.gradle.api.logging.Logger
+
+import java.nio.file.AtomicMoveNotSupportedException
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.StandardCopyOption
+import java.security.MessageDigest
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * A content-addressed store for the files staged into every target.
+ *
+ * <p>Each target gets the same Gradle wrapper and runbook. Instead of
+ * copying them into every staging directory, each file is stored once,
+ * named by its SHA-256 digest, and hard linked into the staging
+ * directories. Where a hard link is not possible, for example across file
+ * systems, the stored file is copied instead. Another {@link CopyStrategy}
+ * can be used instead of hard links.</p>
+ *
+ * <p>Executable and other files are stored separately, since hard links
+ * share permissions.</p>
+ *
+ * <p>A store remembers the files it has stored, so each source file is read
+ * once however many targets it is staged into. A stored file left by an
+ * earlier build is used only after its content is checked against its
+ * name.</p>
+ */
+class BlobStore {
+
+  /**
+   * The store directory, relative to the root project build directory.
+   */
+  static final String DEFAULT_DIR_RELPATH = 'wrench/blobs'
+
+  final File dir
+
+  /**
+   * The paths of the files stored or checked by this store, by source file
+   * path, size, modification time and executable bit.
+   */
+  final Map<String, String> stored = new ConcurrentHashMap<>()
+
+  /**
+   * Creates a store.
+   * @param dir The store directory
+   * @param stored The paths of files already stored or checked in this
+   * build, by source file key, from another store
+   */
+  BlobStore(File dir, Map<String, String> stored = [:]) {
+    this.dir = dir
+    this.stored.putAll(stored)
+  }
+
+  /**
+   * Stages a file at the destination through the store.
+   * @param sourceFile The file to stage
+   * @param destinationFile The staged file, replaced if it exists
+   * @param logger The logger to report to
+   * @param strategy How to write the stored file to the destination
+   */
+  void stage(File sourceFile, File destinationFile, Logger logger, CopyStrategy strategy = CopyStrategy.LINK) {
+    strategy.copy(put(sourceFile), destinationFile, logger)
+  }
+
+  /**
+   * Stages several files through the store.
+   * @param sourceFiles The file to stage at each destination, by destination
+   * @param logger The logger to report to
+   * @param strategy How to write the stored files to the destinations
+   */
+  void stageAll(Map<File, File> sourceFiles, Logger logger, CopyStrategy strategy = CopyStrategy.LINK) {
+    strategy.copyAll(sourceFiles.collectEntries { File destinationFile, File sourceFile ->
+      [(destinationFile): put(sourceFile)]
+    } as Map<File, File>, logger)
+  }
+
+  /**
+   * Stores a file, unless a file with the same content is stored already.
+   * @param sourceFile The file to store
+   * @return The stored file
+   */
+  File put(File sourceFile) {
+    String key = getKey(sourceFile)
+    String path = stored.get(key)
+    if (null != path)
+      return new File(path)
+    File blob = store(sourceFile)
+    stored.put(key, blob.absolutePath)
+    blob
+  }
+
+  private File store(File sourceFile) {
+    String hash = digest(sourceFile)
+    File blob = new File(dir, "${hash.substring(0, 2)}/${hash}${sourceFile.canExecute() ? '-x' : ''}")
+    // A stored file is only reused if its content still matches its name:
+    if (blob.isFile() && blob.length() == sourceFile.length() && hash == digest(blob))
+      return blob
+    blob.parentFile.mkdirs()
+    // Write next to the blob and move into place, so that a concurrent
+    // reader never sees a partial blob:
+    Path temporary = Files.createTempFile(blob.parentFile.toPath(), 'blob', '.tmp')
+    try {
+      Files.copy(sourceFile.toPath(), temporary,
+        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES)
+      try {
+        Files.move(temporary, blob.toPath(), StandardCopyOption.ATOMIC_MOVE)
+      } catch (AtomicMoveNotSupportedException ignored) {
+        Files.move(temporary, blob.toPath(), StandardCopyOption.REPLACE_EXISTING)
+      }
+    } finally {
+      Files.deleteIfExists(temporary)
+    }
+    blob
+  }
+
+  static String getKey(File file) {
+    "${file.canonicalPath}|${file.length()}|${file.lastModified()}|${file.canExecute()}".toString()
+  }
+
+  static String digest(File file) {
+    MessageDigest digest = MessageDigest.getInstance('SHA-256')
+    try {
+      file.withInputStream { InputStream stream ->
+        byte[] buffer = new byte[65536]
+        for (int count = stream.read(buffer); 0 <= count; count = stream.read(buffer))
+          digest.update(buffer, 0, count)
+      }
+    } catch (IOException x) {
+      throw new GradleException("Unable to read ${file}", x)
+    }
+    digest.digest().encodeHex().toString()
+  }
+}
@@ -73,19 +73,43 @@ class CompositeStaging {
   /**
    * Finds the applicable leaves to apply the staging plugin to.
    *
+   * <p>The leaves are looked up in the {@link WrenchProjectIndex} under the
+   * root project build directory, so only leaves whose directories changed
+   * since the previous build are probed for file wrenches and build files.
+   * The paths of the located leaves are also available as the
+   * <code>wrenchProjectPaths</code> property of the parameter project.</p>
+   *
    * @param project The top-level node to locate leaves under
    * @return The located leaf subprojects
    */
   def findWrenchProjects(Project project) {
-    project.subprojects
-      .findAll({ Project p ->
-        // Only apply to leaf projects:
-        p.subprojects.isEmpty() &&
-        // and only leaves with a file wrench:
-        new File(p.projectDir as File, wrenchFileName).exists() &&
-        // and only leaves without a Gradle build file:
-        !(new File(p.projectDir as File, buildFileName).exists())
-      })
+    // Only apply to leaf projects:
+    List<Project> leaves = project.subprojects.findAll { Project p -> p.subprojects.isEmpty() }.toList()
+    // and only leaves with a file wrench and without a Gradle build file:
+    Set<String> paths = getIndex(project)
+      .update(leaves.collectEntries { Project p -> [(p.path): p.projectDir] })
+      .toSet()
+    project.ext.wrenchProjectPaths = paths.toSorted()
+    leaves.findAll { Project p -> paths.contains(p.path) }
+  }
+
+  /**
+   * Loads the wrench project index for the parameter project.
+   * @param project The top-level node to locate leaves under
+   * @return The index, which may be empty
+   */
+  WrenchProjectIndex getIndex(Project project) {
+    WrenchProjectIndex.load(getIndexFile(project), wrenchFileName, buildFileName)
+  }
+
+  /**
+   * Each node the plugin is applied to keeps its own index, so nodes with
+   * different leaves don't overwrite each other's.
+   */
+  static File getIndexFile(Project project) {
+    String name = (project == project.rootProject
+      ? 'root' : project.path.substring(1).replaceAll(':', '-'))
+    new File(project.rootProject.buildDir, "${WrenchProjectIndex.DEFAULT_INDEX_DIR_RELPATH}/${name}.index")
   }
 
   /**
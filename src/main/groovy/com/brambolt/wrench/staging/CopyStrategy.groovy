@@ -0,0 +1,198 @@
+package com.brambolt.wrench.staging
+
+import org.gradle.api.GradleException
+import org.gradle.api.logging.Logger
+
+import java.nio.channels.FileChannel
+import java.nio.file.FileStore
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.StandardOpenOption
+import java.nio.file.attribute.PosixFileAttributeView
+import java.nio.file.attribute.PosixFilePermission
+import java.util.concurrent.ConcurrentHashMap
+
+import static com.brambolt.gradle.util.Platforms.isWindows
+
+/**
+ * How staged files are written into a target.
+ *
+ * <p>A <code>reflink</code> shares the data blocks of the source until either
+ * file is written, on file systems that support it, like Btrfs and XFS. A
+ * <code>link</code> is a hard link, which shares the file itself, so the
+ * linked file is made read-only. A <code>transfer</code> copies the bytes
+ * with <code>FileChannel.transferTo</code>, which lets the kernel copy
+ * without moving the data through the JVM. A strategy that is not possible
+ * for a file falls back to <code>transfer</code>.</p>
+ *
+ * <p>Reflinks are made with <code>cp</code>, one process for all the files
+ * staged together rather than one per file. If the process cannot be
+ * started, reflinks are not attempted again.</p>
+ *
+ * <p>The destination is always removed before it is written, so a staged
+ * file that is a link to another file is replaced, never written through.</p>
+ */
+enum CopyStrategy {
+
+  REFLINK,
+
+  LINK,
+
+  TRANSFER
+
+  /**
+   * The file stores found not to support reflinks, so the copy process is
+   * not started again for every file.
+   */
+  private static final Set<FileStore> NO_REFLINKS = ConcurrentHashMap.newKeySet()
+
+  /**
+   * Copies each file at a destination path in turn, for a single process.
+   */
+  private static final String COPY_LOOP =
+    'while [ $# -gt 1 ]; do cp --reflink=always --preserve=mode,timestamps -- "$1" "$2" || exit 1; shift 2; done'
+
+  /**
+   * Set when the copy process cannot be started, for example without
+   * <code>cp</code>, so it is not tried again.
+   */
+  private static volatile boolean noCopyProcess = false
+
+  /**
+   * Parses a strategy name, for example from the <code>wrenchCopyStrategy</code>
+   * project property or a <code>copyStrategy</code> target attribute.
+   * @param name The strategy name, in any case
+   * @return The strategy, or null if the name is null or empty
+   * @throws GradleException If the name is not a strategy
+   */
+  static CopyStrategy parse(String name) {
+    if (null == name || name.trim().isEmpty())
+      return null
+    CopyStrategy strategy = values().find { it.name().equalsIgnoreCase(name.trim()) }
+    if (null == strategy)
+      throw new GradleException("Unknown copy strategy: ${name}, expected one of ${values()*.name()*.toLowerCase()}")
+    strategy
+  }
+
+  /**
+   * Writes the source file to the destination with this strategy, or the
+   * fallback if this strategy is not possible.
+   * @param sourceFile The file to copy
+   * @param destinationFile The file to write, replaced if it exists
+   * @param logger The logger to report to
+   */
+  void copy(File sourceFile, File destinationFile, Logger logger) {
+    Path source = sourceFile.toPath()
+    Path destination = destinationFile.toPath()
+    Files.deleteIfExists(destination)
+    if (REFLINK == this && reflink([(destination): source])) {
+      logger.debug("Reflinked ${sourceFile} to ${destinationFile}")
+      return
+    }
+    if (LINK == this && link(source, destination)) {
+      logger.debug("Linked ${sourceFile} to ${destinationFile}")
+      return
+    }
+    transfer(source, destination)
+    logger.debug("Transferred ${sourceFile} to ${destinationFile}")
+  }
+
+  /**
+   * Writes several files with this strategy, or the fallback if this
+   * strategy is not possible. The reflinks are made by a single process.
+   * @param sourceFiles The file to copy to each destination file, by
+   * destination file
+   * @param logger The logger to report to
+   */
+  void copyAll(Map<File, File> sourceFiles, Logger logger) {
+    if (REFLINK != this || 2 > sourceFiles.size()) {
+      sourceFiles.each { File destinationFile, File sourceFile -> copy(sourceFile, destinationFile, logger) }
+      return
+    }
+    Map<Path, Path> sources = new LinkedHashMap<>()
+    sourceFiles.each { File destinationFile, File sourceFile ->
+      Files.deleteIfExists(destinationFile.toPath())
+      sources.put(destinationFile.toPath(), sourceFile.toPath())
+    }
+    if (reflink(sources)) {
+      logger.debug("Reflinked ${sources.size()} files")
+      return
+    }
+    sources.each { Path destination, Path source ->
+      Files.deleteIfExists(destination)
+      transfer(source, destination)
+    }
+    logger.debug("Transferred ${sources.size()} files")
+  }
+
+  /**
+   * Reflinks each destination to its source with a single process.
+   * @param sources The source of each destination, by destination
+   * @return True iff every destination was reflinked; otherwise none is left
+   */
+  static boolean reflink(Map<Path, Path> sources) {
+    if (isWindows() || noCopyProcess)
+      return false
+    Set<FileStore> stores = sources.keySet().collect { Path destination ->
+      Files.getFileStore(destination.parent)
+    } as Set<FileStore>
+    if (stores.any { NO_REFLINKS.contains(it) })
+      return false
+    List<String> command = ['sh', '-c', COPY_LOOP, 'sh']
+    sources.each { Path destination, Path source ->
+      command.add(source.toString())
+      command.add(destination.toString())
+    }
+    Process process
+    try {
+      process = new ProcessBuilder(command).redirectErrorStream(true).start()
+    } catch (IOException ignored) {
+      noCopyProcess = true
+      return false
+    }
+    process.inputStream.text // Drain the output
+    if (0 == process.waitFor()) {
+      // Keep the copies writable, like transfer, even from a stored file:
+      sources.keySet().each { Path destination -> destination.toFile().setWritable(true) }
+      return true
+    }
+    // A failure may be on any of the stores, so none of them is tried again:
+    NO_REFLINKS.addAll(stores)
+    sources.keySet().each { Path destination -> Files.deleteIfExists(destination) }
+    false
+  }
+
+  /**
+   * Hard links the destination to the source, and makes them read-only,
+   * since a write to either would change both.
+   */
+  static boolean link(Path source, Path destination) {
+    try {
+      Files.createLink(destination, source)
+    } catch (UnsupportedOperationException | IOException ignored) {
+      return false
+    }
+    destination.toFile().setWritable(false, false)
+    true
+  }
+
+  static void transfer(Path source, Path destination) {
+    FileChannel.open(source, StandardOpenOption.READ).withCloseable { FileChannel input ->
+      FileChannel.open(destination,
+        StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE).withCloseable { FileChannel output ->
+        long size = input.size()
+        for (long position = 0; position < size;)
+          position += input.transferTo(position, size - position, output)
+      }
+    }
+    // Keep the wrapper scripts executable, like copying the attributes, but
+    // keep the copy writable even if the source is a read-only stored file:
+    if (null != Files.getFileAttributeView(source, PosixFileAttributeView)) {
+      Set<PosixFilePermission> permissions = EnumSet.copyOf(Files.getPosixFilePermissions(source))
+      permissions.add(PosixFilePermission.OWNER_WRITE)
+      Files.setPosixFilePermissions(destination, permissions)
+    } else if (Files.isExecutable(source))
+      destination.toFile().setExecutable(true, false)
+    Files.setLastModifiedTime(destination, Files.getLastModifiedTime(source))
+  }
+}
@@ -3,21 +3,40 @@ package com.brambolt.wrench.staging
 import com.brambolt.gradle.staging.tasks.Stage
 import com.brambolt.gradle.text.Strings
 import com.brambolt.gradle.velocity.tasks.Velocity
-import com.brambolt.util.Maps
-import com.brambolt.util.Resources
-import com.brambolt.wrench.InstanceProperties
 import com.brambolt.wrench.StagingPlugin
 import com.brambolt.wrench.Target
 import com.brambolt.wrench.Wrenches
 import com.brambolt.wrench.runbooks.Checkpoint
 import com.brambolt.wrench.runbooks.Runbook
 import com.brambolt.wrench.runbooks.Step
+import com.brambolt.wrench.staging.services.DelegationService
+import com.brambolt.wrench.staging.services.TargetTableService
+import com.brambolt.wrench.staging.services.TraceService
+import com.brambolt.wrench.staging.services.WorkerLimitService
+import com.brambolt.wrench.staging.tasks.CheckpointJournal
+import com.brambolt.wrench.staging.tasks.Delegate
+import com.brambolt.wrench.staging.tasks.DelegateGraph
+import com.brambolt.wrench.staging.tasks.Deploy
+import com.brambolt.wrench.staging.tasks.FanOut
+import com.brambolt.wrench.staging.tasks.GenerateBuildFile
+import com.brambolt.wrench.staging.tasks.GenerateGradleProperties
+import com.brambolt.wrench.staging.tasks.GenerateSettings
+import com.brambolt.wrench.staging.tasks.StageFiles
+import com.brambolt.wrench.staging.tasks.StageTargets
+import com.brambolt.wrench.staging.tasks.Undeploy
+import com.brambolt.wrench.template.Templates
 import org.gradle.api.DefaultTask
 import org.gradle.api.GradleException
 import org.gradle.api.Project
 import org.gradle.api.Task
+import org.gradle.api.file.DirectoryProperty
+import org.gradle.api.provider.MapProperty
+import org.gradle.api.provider.Property
+import org.gradle.api.provider.Provider
 import org.gradle.api.publish.maven.MavenPublication
-import org.gradle.api.tasks.Copy
+import org.gradle.api.specs.Spec
+import org.gradle.api.tasks.TaskProvider
+import org.gradle.build.event.BuildEventsListenerRegistry
 
 import static com.brambolt.gradle.util.Platforms.isWindows
 
@@ -29,6 +48,21 @@ import static com.brambolt.gradle.util.Platforms.isWindows
  */
 class PlanStaging {
 
+  /**
+   * The Gradle wrapper files to stage, relative to the root project.
+   */
+  static final List<String> GRADLE_WRAPPER_PATHS = [
+    'gradle/wrapper/gradle-wrapper.jar',
+    'gradle/wrapper/gradle-wrapper.properties',
+    'gradlew',
+    'gradlew.bat'
+  ].asImmutable()
+
+  /**
+   * The class path location of the template for the staged build file.
+   */
+  static final String BUILD_TEMPLATE_PATH = 'com/brambolt/wrench/staging/build.gradle'
+
   /**
    * The wrench file name. Defaults to <code>runbook.wrench</code>.
    */
@@ -46,12 +80,24 @@ class PlanStaging {
    */
   String stagingRelpath = StagingPlugin.DEFAULT_STAGING_RELPATH
 
+  /**
+   * The build events registry the trace service listens to, if the plugin
+   * was given one.
+   */
+  BuildEventsListenerRegistry buildEvents
+
+  /**
+   * The trace service, if the project sets <code>wrenchTrace</code>.
+   */
+  Provider<TraceService> trace
+
   /**
    * Constructor. The map parameter may be empty or may hold:
    * <ul>
    *   <li><code>wrenchFileName</code>: Overrides the wrench file name</li>
    *   <li><code>wrenchFile</code>: Sets the wrench file explicitly</li>
    *   <li><code>stagingRelpath</code>: Changes the default staging location</li>
+   *   <li><code>buildEvents</code>: The build events registry, for tracing</li>
    * </ul>
    *
    * @param options The options map, which may be empty or null
@@ -65,6 +111,8 @@ class PlanStaging {
       this.wrenchFile = options.wrenchFile as File
     if (options.containsKey('stagingPath'))
       this.stagingRelpath = options.stagingPath as String
+    if (options.containsKey('buildEvents'))
+      this.buildEvents = options.buildEvents as BuildEventsListenerRegistry
   }
 
   /**
@@ -79,18 +127,30 @@ class PlanStaging {
    * @param project The project to configure
    */
   void apply(Project project) {
-    wrenchFile = findWrenchFile(project)
-    applyStagingPlugin(project)
-    configureStageTask(project)
-    configureStagingExtension(project)
-    Velocity velocity = configureVelocityTask(project)
-    configureTargets(project, velocity)
-    configureBuild(project)
-    applyWrench(project)
-    configureBuildTasks(project)
+    trace = TraceService.register(project, buildEvents)
+    wrenchFile = phase(project, 'findWrenchFile') { findWrenchFile(project) }
+    phase(project, 'applyStagingPlugin') { applyStagingPlugin(project) }
+    phase(project, 'configureStageTask') { configureStageTask(project) }
+    phase(project, 'configureStagingExtension') { configureStagingExtension(project) }
+    TaskProvider<Velocity> velocity = phase(project, 'configureVelocityTask') { configureVelocityTask(project) }
+    phase(project, 'configureTargets') { configureTargets(project, velocity) }
+    phase(project, 'configureBuild') { configureBuild(project) }
+    phase(project, 'applyWrench') { applyWrench(project) }
+    phase(project, 'configureBuildTasks') { configureBuildTasks(project) }
     // configurePublishing(project)
   }
 
+  /**
+   * Runs a configuration phase, in a span if the build is traced.
+   * @param project The project being configured
+   * @param name The phase name
+   * @param closure The phase
+   * @return The value returned by the phase
+   */
+  def <T> T phase(Project project, String name, Closure<T> closure) {
+    TraceService.trace(trace, 'phase', name, [project: project.path] as Map<String, Object>, closure)
+  }
+
   /**
    * Locates the wrench file the project should build, or throws.
    * @param project The project that builds the wrench
@@ -122,38 +182,28 @@ class PlanStaging {
 
   /**
    * Configures the staging extension with targets.
+   *
+   * <p>The system identifier is taken from the <code>wrenchSystemId</code>
+   * project property if set, or else from the wrench header, which is read
+   * without evaluating the wrench. The targets for the system are then
+   * retrieved from the instance properties. A wrench header with a literal
+   * host and environment, and no system, defines a single target.</p>
+   *
    * @param project The project being configured
    */
   void configureStagingExtension(Project project) {
-    // We need to partially parse the wrench here, and extract enough data to
-    // allow retrieving the target definitions from the properties; this is
-    // pending, and in the meanwhile we can attempt to use explicitly set
-    // project properties (wrench*):
-    if (project.hasProperty('wrenchSystemId')) {
-      InstanceProperties instanceProperties = InstanceProperties.getFor(
-        project.wrenchApplicationPath,
-        project.wrenchInstancePath,
-        project.wrenchSystemId,
-        project.projectDir)
-      Map<String, Map> targets = [:]
-      String systemId = project.wrenchSystemId
-      List<String> segments = (systemId.contains('.')
-        ? systemId.split('\\.').toList() : [systemId])
-      Map nested = Maps.convert(instanceProperties)
-      for (String segment: segments)
-        nested = nested[segment]
-      if (null == nested.targets)
-        throw new GradleException("No targets defined for ${project.wrenchSystemId}")
-      nested.targets.listing.split(',').each { String it ->
-        String name = it.trim()
-        targets[name] = [
-          name: name,
-          environment: [name: nested.targets[name].environment.name],
-          host: [name: nested.targets[name].host.name]
-        ]
-      }
-      project.extensions.staging.targets(targets)
-    } else {
+    WrenchHeader header = WrenchHeader.scan(wrenchFile)
+    String systemId = (project.hasProperty('wrenchSystemId')
+      ? project.wrenchSystemId as String
+      : header.systemId)
+    if (null != systemId)
+      project.extensions.staging.targets(getTargets(project, systemId))
+    else if (header.hasLiteralTarget())
+      project.extensions.staging.targets((header.hostName): [
+        name: header.hostName,
+        host: [name: header.hostName],
+        environment: [name: header.environmentName]])
+    else {
       // Or, we guess blindly...
       project.extensions.staging.targets(
         brambolt: [
@@ -167,6 +217,39 @@ class PlanStaging {
     }
   }
 
+  /**
+   * Retrieves the target definitions for the system from the instance
+   * properties, through the build-wide target table service.
+   *
+   * @param project The project being configured
+   * @param systemId The system identifier
+   * @return The target definitions, by target name
+   * @throws GradleException If the system has no targets
+   * @see TargetTableService
+   */
+  Map<String, Map> getTargets(Project project, String systemId) {
+    Provider<TargetTableService> service = project.gradle.sharedServices.registerIfAbsent(
+      TargetTableService.DEFAULT_SERVICE_NAME, TargetTableService) { spec ->
+      spec.parameters.cacheDir.set(new File(project.rootDir, '.gradle/wrench/targets'))
+    }
+    service.get().getTargets(
+      getPropertiesPath(project, 'wrenchApplicationPath', systemId, 'application.properties'),
+      getPropertiesPath(project, 'wrenchInstancePath', systemId, 'instance.properties'),
+      systemId,
+      project.projectDir)
+  }
+
+  /**
+   * Returns the properties path from the project property if set, or else
+   * the conventional path for the system, for example
+   * <code>some/example/system/application.properties</code>.
+   */
+  static String getPropertiesPath(Project project, String propertyName, String systemId, String fileName) {
+    (project.hasProperty(propertyName)
+      ? project.property(propertyName) as String
+      : "${systemId.replaceAll('\\.', '/')}/${fileName}".toString())
+  }
+
   String getEnvironmentName(Project project, String suffix) {
     String acronym = project.hasProperty('clientAcronym') ? project.clientAcronym : ''
     "${acronym}${suffix}"
@@ -177,11 +260,19 @@ class PlanStaging {
    * executes before any target tasks; not yet configurable; hardcoded.
    *
    * @param project The project being configured
+   * @return The provider for the Velocity task, which is not realized here
    */
-  static void configureVelocityTask(Project project) {
-    Velocity velocity = (Velocity) project.tasks.findByName(Velocity.DEFAULT_VELOCITY_TASK_NAME)
-    if (null == velocity)
+  static TaskProvider<Velocity> configureVelocityTask(Project project) {
+    if (!project.tasks.names.contains(Velocity.DEFAULT_VELOCITY_TASK_NAME))
       throw new GradleException("Velocity task '${Velocity.DEFAULT_VELOCITY_TASK_NAME}' not found")
+    TaskProvider<Velocity> provider = project.tasks.named(Velocity.DEFAULT_VELOCITY_TASK_NAME, Velocity)
+    provider.configure { Velocity velocity ->
+      configureVelocityContext(project, velocity)
+    }
+    provider
+  }
+
+  static void configureVelocityContext(Project project, Velocity velocity) {
     velocity.context {
       // Be careful not to use variable names that are already in scope; this
       // will simply assign a new value to that variable, and not affect the
@@ -215,12 +306,71 @@ class PlanStaging {
 
   /**
    * Configures the targets defined by the staging extension.
+   *
+   * <p>The target tasks are registered rather than created, so they are only
+   * realized when something in the task graph actually requires them.</p>
+   *
+   * <p>If the project sets <code>wrenchStagingParallelism</code> then all
+   * targets are staged by a single task, concurrently, with at most that
+   * many targets in progress at a time across the build. Otherwise each target is staged by
+   * its own chain of tasks.</p>
+   *
+   * @param project The project being configured
+   * @param start A start dependency that needs to execute before the target tasks
+   */
+  void configureTargets(Project project, TaskProvider<? extends Task> start) {
+    Map<String, Map> targets = project.extensions.staging.targetValues.get()
+    if (project.hasProperty('wrenchStagingParallelism'))
+      configureParallelTargets(project, targets, start)
+    else
+      targets.each { Map.Entry target ->
+        TraceService.trace(trace, 'configure', target.key as String) {
+          configureTarget(project, (Map) target.value, start)
+        }
+      }
+  }
+
+  /**
+   * Configures a single task to stage all the parameter targets in parallel.
    * @param project The project being configured
+   * @param targets The targets to stage
+   * @param start A start dependency that needs to execute before the targets are staged
+   * @return The registered task to stage the targets
    */
-  void configureTargets(Project project, Task start) {
-    project.extensions.staging.targetValues.get().each { Map.Entry target ->
-      configureTarget(project, (Map) target.value, start)
+  TaskProvider<StageTargets> configureParallelTargets(
+    Project project, Map<String, Map> targets, TaskProvider<? extends Task> start) {
+    String taskName = 'stageTargets'
+    if (project.tasks.names.contains(taskName))
+      return project.tasks.named(taskName, StageTargets)
+    TaskProvider<StageTargets> provider = project.tasks.register(taskName, StageTargets) { StageTargets task ->
+      task.dependsOn(start)
+      task.onlyIf(runbookExists(wrenchFile))
+      task.workerLimit.set(WorkerLimitService.register(project, 'wrenchStagingParallelism',
+        Integer.parseInt(project.wrenchStagingParallelism as String)))
+      task.resourcePath.set(BUILD_TEMPLATE_PATH)
+      task.templateVersion.set(StagingPlugin.versionFromManifest ?: 'unknown')
+      task.templateDigest.set(Templates.digest(BUILD_TEMPLATE_PATH))
+      task.wrapperDir.set(project.rootDir)
+      task.wrapperPaths.addAll(GRADLE_WRAPPER_PATHS)
+      task.runbookFile.set(wrenchFile)
+      task.propertiesFile.set(new File(project.rootProject.projectDir, GenerateGradleProperties.DEFAULT_FILE_NAME))
+      configurePropertyDefaults(project, task.propertyDefaults)
+      task.rootProjectName.set(getStagingRootProjectName(project))
+      if (null != trace)
+        task.traceService.set(trace)
+      configureBlobStore(project, task.blobStoreDir,
+        targets.values().collect { Map target -> getCopyStrategy(project, target) })
+      targets.values().each { Map target ->
+        task.target(target.name as String, getTemplateBindings(target), getStagingDir(project, target),
+          getCopyStrategy(project, target))
+      }
     }
+    targets.values().each { Map target ->
+      project.tasks.named("${target.name}Resources").configure { Task targetResources ->
+        targetResources.dependsOn(provider)
+      }
+    }
+    provider
   }
 
   /**
@@ -229,14 +379,15 @@ class PlanStaging {
    * @param target The target being configured
    * @param start A start dependency that needs to execute before the target tasks
    */
-  void configureTarget(Project project, Map target, Task start) {
-    Task gradleBuild = configureGradleBuild(project, target, start)
-    Task gradleWrapper = configureGradleWrapperTask(project, target, gradleBuild)
-    Task runbook = configureRunbookTask(project, target, gradleWrapper)
-    Task gradleProperties = configureGradlePropertiesTask(project, target, runbook)
-    Task settings = configureSettingsTask(project, target, gradleProperties)
-    Task targetResources = project.tasks.getByName("${target.name}Resources")
-    targetResources.dependsOn(settings)
+  void configureTarget(Project project, Map target, TaskProvider<? extends Task> start) {
+    TaskProvider<GenerateBuildFile> gradleBuild = configureGradleBuild(project, target, start)
+    TaskProvider<StageFiles> gradleWrapper = configureGradleWrapperTask(project, target, gradleBuild)
+    TaskProvider<StageFiles> runbook = configureRunbookTask(project, target, gradleWrapper)
+    TaskProvider<GenerateGradleProperties> gradleProperties = configureGradlePropertiesTask(project, target, runbook)
+    TaskProvider<GenerateSettings> settings = configureSettingsTask(project, target, gradleProperties)
+    project.tasks.named("${target.name}Resources").configure { Task targetResources ->
+      targetResources.dependsOn(settings)
+    }
   }
 
   /**
@@ -248,19 +399,17 @@ class PlanStaging {
    * @param project The project being configured
    * @param target The target being configured
    * @param start A start dependency that must execute first
-   * @return The created and configured task to create the Gradle build file
+   * @return The registered task to create the Gradle build file
    */
-  Task configureGradleBuild(Project project, Map target, Task start) {
+  TaskProvider<GenerateBuildFile> configureGradleBuild(Project project, Map target, TaskProvider<? extends Task> start) {
     String taskName = "${target.name}GradleBuild"
-    Task existing = project.tasks.findByName(taskName)
-    if (null != existing)
-      return existing
-    project.task([type: DefaultTask, dependsOn: start], taskName) {
+    if (project.tasks.names.contains(taskName))
+      return project.tasks.named(taskName, GenerateBuildFile)
+    project.tasks.register(taskName, GenerateBuildFile) { GenerateBuildFile task ->
+      task.dependsOn(start)
       // If there is no runbook to execute then no build is needed:
-      onlyIf { null != wrenchFile && wrenchFile.exists() }
-      doFirst {
-        instantiateBuildTemplate(project, target)
-      }
+      task.onlyIf(runbookExists(wrenchFile))
+      configureBuildTemplate(project, target, task)
     }
   }
 
@@ -270,26 +419,78 @@ class PlanStaging {
    * @param project The project being configured
    * @param target The target being configured
    * @param start A start dependency that must execute first
-   * @return The created and configured task to establish the Gradle wrapper
+   * @return The registered task to establish the Gradle wrapper
    */
-  Copy configureGradleWrapperTask(Project project, Map target, Task start) {
+  TaskProvider<StageFiles> configureGradleWrapperTask(
+    Project project, Map target, TaskProvider<? extends Task> start) {
     String taskName = "${target.name}GradleWrapper"
-    // Check whether we already configured the task:
-    Copy existing = project.tasks.findByName(taskName) as Copy
-    if (null != existing)
-      return existing
-    (Copy) project.task([type: Copy, dependsOn: start], taskName) {
+    // Check whether we already registered the task:
+    if (project.tasks.names.contains(taskName))
+      return project.tasks.named(taskName, StageFiles)
+    project.tasks.register(taskName, StageFiles) { StageFiles task ->
+      task.dependsOn(start)
       // If there is no runbook to execute then no wrapper is needed:
-      onlyIf { null != wrenchFile && wrenchFile.exists() }
-      from (project.rootDir) {
-        include 'gradle/wrapper/*.*'
-        include 'gradlew'
-        include 'gradlew.bat'
-      }
-      into getStagingDir(project, target)
+      task.onlyIf(runbookExists(wrenchFile))
+      task.sourceDir.set(project.rootDir)
+      task.paths.addAll(GRADLE_WRAPPER_PATHS)
+      task.destinationDir.set(getStagingDir(project, target))
+      configureCopyStrategy(project, target, task)
     }
   }
 
+  /**
+   * Sets the blob store directory if the project sets
+   * <code>wrenchBlobStore</code> to <code>true</code>, so the files that are
+   * the same for every target are stored once and linked into each target.
+   * Staged files are only hard linked to stored files, so the blob store is
+   * also used for the targets with the <code>link</code> copy strategy.
+   *
+   * @param project The project being configured
+   * @param blobStoreDir The task property to set
+   * @param copyStrategies The copy strategies of the staged targets
+   * @see BlobStore
+   */
+  static void configureBlobStore(Project project, DirectoryProperty blobStoreDir, List<String> copyStrategies) {
+    boolean linked = copyStrategies.any { CopyStrategy.LINK == CopyStrategy.parse(it) }
+    if (linked || (project.hasProperty('wrenchBlobStore') && Boolean.parseBoolean(project.wrenchBlobStore as String)))
+      blobStoreDir.set(new File(project.rootProject.buildDir, BlobStore.DEFAULT_DIR_RELPATH))
+  }
+
+  /**
+   * Returns how the staged files are written into the target: the
+   * <code>copyStrategy</code> attribute of the target if set, or else the
+   * <code>wrenchCopyStrategy</code> project property, or null for the
+   * default.
+   *
+   * @param project The project being configured
+   * @param target The target being configured
+   * @return The copy strategy name, or null
+   * @see CopyStrategy
+   */
+  static String getCopyStrategy(Project project, Map target) {
+    if (null != target.copyStrategy)
+      return target.copyStrategy as String
+    project.hasProperty('wrenchCopyStrategy') ? project.wrenchCopyStrategy as String : null
+  }
+
+  static void configureCopyStrategy(Project project, Map target, StageFiles task) {
+    String copyStrategy = getCopyStrategy(project, target)
+    task.copyStrategy.set(copyStrategy)
+    configureBlobStore(project, task.blobStoreDir, [copyStrategy])
+  }
+
+  /**
+   * Creates a task predicate that only holds if the runbook exists. This
+   * does not hold on to the staging instance, so it can be cached with the
+   * rest of the task graph.
+   *
+   * @param runbookFile The runbook to check for
+   * @return A specification that is satisfied if the runbook exists
+   */
+  static Spec<Task> runbookExists(File runbookFile) {
+    { Task task -> null != runbookFile && runbookFile.exists() } as Spec<Task>
+  }
+
   File getStagingDir(Project project, Map target) {
     if (null == stagingRelpath || stagingRelpath.isEmpty() || '.' == stagingRelpath)
       Stage.getResourcesDir(project, target)
@@ -297,83 +498,69 @@ class PlanStaging {
       new File("${Stage.getResourcesDir(project, target)}/${stagingRelpath}")
   }
 
-  Copy configureRunbookTask(Project project, Map target, Task previous) {
+  TaskProvider<StageFiles> configureRunbookTask(
+    Project project, Map target, TaskProvider<? extends Task> previous) {
     String taskName = "${target.name}Runbook"
-    Copy existing = project.tasks.findByName(taskName) as Copy
-    if (null != existing)
-      return existing // We did this already...
-    (Copy) project.task([type: Copy, dependsOn: previous], taskName) {
-      onlyIf { null != wrenchFile && wrenchFile.exists() }
-      from(wrenchFile.parentFile) {
-        include wrenchFile.name
-      }
-      into getStagingDir(project, target) // The same directory as the wrapper...
+    if (project.tasks.names.contains(taskName))
+      return project.tasks.named(taskName, StageFiles) // We did this already...
+    project.tasks.register(taskName, StageFiles) { StageFiles task ->
+      task.dependsOn(previous)
+      task.onlyIf(runbookExists(wrenchFile))
+      task.sourceDir.set(wrenchFile.parentFile)
+      task.paths.add(wrenchFile.name)
+      task.destinationDir.set(getStagingDir(project, target)) // The same directory as the wrapper...
+      configureCopyStrategy(project, target, task)
     }
   }
 
-  Task configureGradlePropertiesTask(Project project, Map target, Task previous) {
+  TaskProvider<GenerateGradleProperties> configureGradlePropertiesTask(
+    Project project, Map target, TaskProvider<? extends Task> previous) {
     String taskName = "${target.name}GradleProperties"
-    Task existing = project.tasks.findByName(taskName)
-    if (null != existing)
-      return existing
-    project.task([type: DefaultTask, dependsOn: previous], taskName) {
+    if (project.tasks.names.contains(taskName))
+      return project.tasks.named(taskName, GenerateGradleProperties)
+    project.tasks.register(taskName, GenerateGradleProperties) { GenerateGradleProperties task ->
+      task.dependsOn(previous)
       // If there is no runbook to execute then no properties are needed:
-      onlyIf { null != wrenchFile && wrenchFile.exists() }
-      String filename = 'gradle.properties'
-      File destinationDir = getStagingDir(project, target)
-      File destinationFile = new File(destinationDir, filename)
-      File sourceFile = new File(project.rootProject.projectDir, filename)
-      doFirst {
-        String content = sourceFile.text
-        if (!content.endsWith('\n'))
-          content += '\n'
-        content += '\n'
-        if (!content.contains('bramboltRelease='))
-          content += "bramboltRelease=${project.bramboltRelease}\n"
-        if (!content.contains('bramboltVersion='))
-          content += "bramboltVersion=${project.bramboltVersion}\n"
-        if (!content.contains('buildNumber='))
-          content += "buildNumber=${project.buildNumber}\n"
-        if (!content.contains('version='))
-          content += "version=${project.bramboltVersion}\n"
-        destinationFile.text = content
-      }
+      task.onlyIf(runbookExists(wrenchFile))
+      String filename = GenerateGradleProperties.DEFAULT_FILE_NAME
+      task.sourceFile.set(new File(project.rootProject.projectDir, filename))
+      configurePropertyDefaults(project, task.defaults)
+      task.outputFile.set(new File(getStagingDir(project, target), filename))
     }
   }
 
-  DefaultTask configureSettingsTask(Project project, Map target, Task previous) {
+  static void configurePropertyDefaults(Project project, MapProperty<String, String> defaults) {
+    // The order matters, the properties are appended in this order:
+    defaults.put('bramboltRelease', project.provider { project.bramboltRelease as String })
+    defaults.put('bramboltVersion', project.provider { project.bramboltVersion as String })
+    defaults.put('buildNumber', project.provider { project.buildNumber as String })
+    defaults.put('version', project.provider { project.bramboltVersion as String })
+  }
+
+  static String getStagingRootProjectName(Project project) {
+    "${project.rootProject.name}-staging".toString()
+  }
+
+  TaskProvider<GenerateSettings> configureSettingsTask(
+    Project project, Map target, TaskProvider<? extends Task> previous) {
     String taskName = "${target.name}Settings"
-    DefaultTask existing = project.tasks.findByName(taskName) as DefaultTask
-    if (null != existing)
-      return existing
-    (DefaultTask) project.task([type: DefaultTask, dependsOn: previous], taskName) {
+    if (project.tasks.names.contains(taskName))
+      return project.tasks.named(taskName, GenerateSettings)
+    project.tasks.register(taskName, GenerateSettings) { GenerateSettings task ->
+      task.dependsOn(previous)
       // No runbook, no Gradle anything...
-      onlyIf { null != wrenchFile && wrenchFile.exists() }
-      String filename = 'settings.gradle'
-      File destinationDir = getStagingDir(project, target)
-      File destinationFile = new File(destinationDir, filename)
-      doFirst {
-        destinationFile.text = "rootProject.name = '${project.rootProject.name}-staging'"
-      }
+      task.onlyIf(runbookExists(wrenchFile))
+      task.rootProjectName.set(getStagingRootProjectName(project))
+      task.outputFile.set(new File(getStagingDir(project, target), GenerateSettings.DEFAULT_FILE_NAME))
     }
   }
 
-  void instantiateBuildTemplate(Project project, Map target) {
-    final String packagePath = 'com/brambolt/wrench/staging'
-    final String baseName = 'build.gradle'
-    final String resourcePath = "${packagePath}/${baseName}"
-    File destinationDir = getStagingDir(project, target)
-    File destinationFile = new File(destinationDir, baseName)
-    if (!destinationDir.exists())
-      destinationDir.mkdirs()
-    Map<String, String> bindings = [
-      environmentName: target.environment.name as String,
-      hostName: target.host.name as String
-    ]
-    File outputFile = Resources.createFileFromResource(resourcePath, destinationFile, bindings)
-    project.logger.info("Copied ${resourcePath} from class path to file system at ${destinationFile}")
-    if (null == outputFile || !outputFile.exists())
-      throw new GradleException("Unable to write ${resourcePath} to ${destinationFile}: ${outputFile}")
+  void configureBuildTemplate(Project project, Map target, GenerateBuildFile task) {
+    task.resourcePath.set(BUILD_TEMPLATE_PATH)
+    task.templateVersion.set(StagingPlugin.versionFromManifest ?: 'unknown')
+    task.templateDigest.set(Templates.digest(BUILD_TEMPLATE_PATH))
+    task.bindings.putAll(getTemplateBindings(target))
+    task.outputFile.set(new File(getStagingDir(project, target), GenerateBuildFile.DEFAULT_FILE_NAME))
     // Long comment out of date here...
 
     // Next up, fill in the missing logic to add the build.gradle.vtl
@@ -410,6 +597,13 @@ class PlanStaging {
     // ... No need for any of this now...
   }
 
+  static Map<String, String> getTemplateBindings(Map target) {
+    [
+      environmentName: target.environment.name as String,
+      hostName: target.host.name as String
+    ]
+  }
+
   void configureStageTask(Project project) {
     project.stage {
       includeAllResources = true
@@ -423,37 +617,17 @@ class PlanStaging {
     if (!project.hasProperty('wrench'))
       project.ext.wrench = [:]
     Map<String, Object> wrench = project.wrench
-    wrench.target = [:]
-    project.ext.wrench = wrench
-    wrench.target.dir = (project.hasProperty('wrenchDir')
-      ? project.wrenchDir
-      : new File(project.buildDir, 'staging'))
-    wrench.target.environment = [:]
-    wrench.target.environment.name = (project.hasProperty('wrenchEnvironmentName')
+    String envName = (project.hasProperty('wrenchEnvironmentName')
       ? project.wrenchEnvironmentName
-      : getEnvironmentName(project, 'dev'))
-    wrench.target.staging = [:]
-    wrench.target.staging.dir = new File(wrench.target.dir as File, '.wrench')
-    wrench.target.host = [:]
-    wrench.target.host.name = (project.hasProperty('wrenchHostName')
+      : getEnvironmentName(project, 'dev')) as String
+    String hostName = (project.hasProperty('wrenchHostName')
       ? project.wrenchHostName
-      : wrenches.classifier)
-    wrench.target.hosts = [:]
-    wrench.target.hosts.dir = new File(wrench.target.dir as File, 'hosts')
-    wrench.target.hosts[wrench.target.environment.name as String] = [:]
-    // build/SNAPSHOT-brambolt/hosts/***dev:
-    String envName = wrench.target.environment.name as String
-    Map env = wrench.target.hosts[envName] as Map
-    env.dir = new File(wrench.target.hosts.dir as File, envName)
-    // build/SNAPSHOT-brambolt/hosts/dev/brambolt:
-    String hostName = wrench.target.host.name as String
-    env[hostName] = [dir: new File(env.dir as File, hostName)]
-    // build/SNAPSHOT-brambolt/hosts/***dev/brambolt-client:
-    env["${hostName}-client"] = [:]
-    (env["${hostName}-client"] as Map).dir =
-      new File(env.dir as File, "${hostName}-client")
-    wrench.target.workspace = [:]
-    wrench.target.workspace.dir = new File(wrench.target.dir as File, 'workspace')
+      : wrenches.classifier) as String
+    wrench.target = createTarget(
+      project.hasProperty('wrenchDir') ? project.wrenchDir : new File(project.buildDir, 'staging'),
+      envName,
+      hostName)
+    project.ext.wrench = wrench
     wrench.script = (Wrenches.find(project)
       .withTarget(Target.create(project))
       .withContext(context: 'build')
@@ -464,6 +638,33 @@ class PlanStaging {
     wrench.gradlew = new File(wrench.target.staging.dir as File, isWindows() ? 'gradlew.bat' : 'gradlew')
   }
 
+  /**
+   * Creates the <code>wrench.target</code> map, with the directories the
+   * wrench is staged and run in for the parameter environment and host.
+   *
+   * @param dir The target directory, a file or a path
+   * @param envName The environment name
+   * @param hostName The host name
+   * @return The target map
+   */
+  static Map<String, Object> createTarget(Object dir, String envName, String hostName) {
+    Map<String, Object> target = [:]
+    target.dir = dir
+    target.environment = [name: envName]
+    target.staging = [dir: new File(dir as File, '.wrench')]
+    target.host = [name: hostName]
+    File hostsDir = new File(dir as File, 'hosts')
+    // build/SNAPSHOT-brambolt/hosts/***dev:
+    Map env = [dir: new File(hostsDir, envName)]
+    target.hosts = [dir: hostsDir, (envName): env]
+    // build/SNAPSHOT-brambolt/hosts/dev/brambolt:
+    env[hostName] = [dir: new File(env.dir as File, hostName)]
+    // build/SNAPSHOT-brambolt/hosts/***dev/brambolt-client:
+    env["${hostName}-client".toString()] = [dir: new File(env.dir as File, "${hostName}-client")]
+    target.workspace = [dir: new File(dir as File, 'workspace')]
+    target
+  }
+
   void applyWrench(Project project) {
     project.wrench.script.apply()
   }
@@ -474,83 +675,265 @@ class PlanStaging {
   }
 
   void configureMainTasks(Project project) {
-    project.publishToMavenLocal.dependsOn(project.stage)
-    Task local = project.task(
-      [type: DefaultTask, dependsOn: project.publishToMavenLocal], 'local')
-    project.task([type: DefaultTask], 'undeploy') {
-      doFirst {
-        project.delete(project.wrench.target.dir as File)
-      }
+    project.tasks.named('publishToMavenLocal').configure { Task task ->
+      task.dependsOn('stage')
     }
-    project.task([type: DefaultTask, dependsOn: local], 'deploy') {
-      doFirst {
-        File runbookArchive = new File(project.buildDir,
-          "libs/${project.artifactId}-${project.version}-${project.wrenches.classifier}.zip")
-        project.copy {
-          from project.zipTree(runbookArchive) as Object
-          into project.wrench.target.dir as File
-        }
-      }
+    TaskProvider<Task> local = project.tasks.register('local') { Task task ->
+      task.dependsOn('publishToMavenLocal')
+    }
+    project.tasks.register('undeploy', Undeploy) { Undeploy task ->
+      task.destinationDir.set(project.wrench.target.dir as File)
+    }
+    project.tasks.register('deploy', Deploy) { Deploy task ->
+      task.dependsOn(local)
+      task.archiveFile.set(new File(project.buildDir,
+        "libs/${project.artifactId}-${project.version}-${project.wrenches.classifier}.zip"))
+      task.destinationDir.set(project.wrench.target.dir as File)
+      // Swap in complete deployments only, if the project asks for it:
+      if (project.hasProperty('wrenchAtomicDeploy'))
+        task.atomic.set(Boolean.parseBoolean(project.wrenchAtomicDeploy as String))
+      task.copyStrategy.set(getCopyStrategy(project, [:]))
     }
   }
 
+  /**
+   * Adds a task rule for the tasks that delegate to the staged wrench build.
+   *
+   * <p>A runbook can have thousands of checkpoints and steps, so instead of
+   * registering a delegating task for each of them up front, only the
+   * requested <code>runRunbook&lt;Name&gt;</code>,
+   * <code>runCheckpoint&lt;Name&gt;</code> and <code>runStep&lt;Name&gt;</code>
+   * tasks are registered, through the delegation index. If the project sets
+   * <code>wrenchEagerDelegation</code> to <code>true</code> then every
+   * delegating task is registered up front as before.</p>
+   *
+   * @param project The project being configured
+   */
   void configureDelegation(Project project) {
-    Target target = project.wrench.script.target
+    Map<String, List<String>> index = createDelegationIndex(project.wrench.script.target as Target)
+    if (project.hasProperty('wrenchEagerDelegation') &&
+      Boolean.parseBoolean(project.wrenchEagerDelegation as String)) {
+      index.each { String taskName, List<String> node ->
+        configureDelegation(project, taskName, node[0], node[1])
+      }
+      return
+    }
+    project.tasks.addRule(
+      'Pattern: runRunbook<Name>, runFleet<Name>, runCheckpoint<Name>, runStep<Name>: Delegates to the staged wrench build') { String taskName ->
+      List<String> node = index.get(taskName)
+      if (null != node)
+        configureDelegation(project, taskName, node[0], node[1])
+    }
+  }
+
+  /**
+   * Indexes the delegating task names of the target.
+   *
+   * @param target The target to index
+   * @return The node name and qualifier for each delegating task name
+   */
+  Map<String, List<String>> createDelegationIndex(Target target) {
+    Map<String, List<String>> index = new LinkedHashMap<>()
     target.runbooks.each { Runbook runbook ->
-      configureDelegation(project,
-        formatDelegateTaskName('runRunbook', runbook.name), runbook.name, 'runbook')
+      index.put(formatDelegateTaskName('runRunbook', runbook.name), [runbook.name, 'runbook'])
+      index.put(formatDelegateTaskName('runFleet', runbook.name), [runbook.name, 'fleet'])
     }
     if (1 == target.runbooks.size())
       // One runbook - delegate with 'runRunbook' as a special case:
       target.runbooks.each { Runbook runbook ->
-        configureDelegation(project, 'runRunbook', runbook.name, 'runbook')
+        index.put('runRunbook', [runbook.name, 'runbook'])
+        index.put('runFleet', [runbook.name, 'fleet'])
       }
     target.checkpoints.each { Checkpoint checkpoint ->
-      configureDelegation(project,
-        formatDelegateTaskName('runCheckpoint', checkpoint.name), checkpoint.name, 'checkpoint')
+      index.put(formatDelegateTaskName('runCheckpoint', checkpoint.name), [checkpoint.name, 'checkpoint'])
     }
     target.steps.each { Step step ->
-      configureDelegation(project,
-        formatDelegateTaskName('runStep', step.name), step.name, '')
+      index.put(formatDelegateTaskName('runStep', step.name), [step.name, ''])
     }
+    index
   }
 
-  private String formatDelegateTaskName(String prefix, String nodeName) {
+  static String formatDelegateTaskName(String prefix, String nodeName) {
     "${prefix}${Strings.toCamelCase(nodeName, [';'])}".toString() // Fix...
   }
 
+  /**
+   * Registers a task to delegate to the staged wrench build.
+   *
+   * <p>By default the staged Gradle wrapper is executed. If the project sets
+   * <code>wrenchDelegationMode</code> to <code>tooling</code> then the staged
+   * build is run through the Tooling API instead, keeping the daemon warm
+   * across delegations.</p>
+   *
+   * <p>If the project sets <code>wrenchRunbookWorkers</code> then runbooks
+   * are delegated checkpoint by checkpoint instead, running independent
+   * checkpoints concurrently with at most that many at a time across the
+   * build. The runbook runtime does not declare checkpoint dependencies, so
+   * the checkpoints that don't depend on the ones before them are listed,
+   * comma-separated, in <code>wrenchIndependentCheckpoints</code>; without
+   * it the checkpoints run in declaration order. If the project sets
+   * <code>wrenchJournal</code> to <code>true</code> then runbooks are also
+   * delegated checkpoint by checkpoint, and a failed run resumes from the
+   * first incomplete checkpoint.</p>
+   *
+   * @param project The project being configured
+   * @param taskName The name of the delegating task
+   * @param nodeName The name of the runbook, checkpoint or step to delegate to
+   * @param qualifier The node type prefix for the staged build task name
+   */
   void configureDelegation(Project project, String taskName, String nodeName, String qualifier) {
-    project.task([type: DefaultTask, dependsOn: 'deploy'], taskName) {
-      String qualified = qualifier.isEmpty() ? nodeName : qualifier + Strings.toCamelCase(nodeName, [';'])
-      List<String> args = [project.wrench.gradlew, qualified, '--info', '--stacktrace']
-      if (project.gradle.startParameter.isRefreshDependencies())
-        args.add('--refresh-dependencies')
-      if (project.gradle.startParameter.getDependencyVerificationMode())
-      // Include known wrench properties for delegation:
-      [
-        'wrenchApplicationPath',
-        'wrenchEnvironmentName',
-        'wrenchHostName',
-        'wrenchInstancePath',
-        'wrenchPropertiesArtifactId',
-        'wrenchPropertiesGroup',
-        'wrenchSystemId'
-      ].each {
-        if (project.hasProperty(it))
-          args.add("-P${it}=${project.getProperties().get(it)}")
-      }
-      // If the project has configured properties to be passed along when
-      // delegating to wrench tasks, add them here:
-      if (project.hasProperty('wrenchDelegation'))
-        args.addAll(project.wrenchDelegation as List<String>)
+    if ('fleet' == qualifier) {
+      configureFleetDelegation(project, taskName, nodeName)
+      return
+    }
+    if ('runbook' == qualifier && (project.hasProperty('wrenchRunbookWorkers') || isJournaled(project))) {
+      configureGraphDelegation(project, taskName, nodeName)
+      return
+    }
+    Provider<DelegationService> service = project.gradle.sharedServices.registerIfAbsent(
+      DelegationService.DEFAULT_SERVICE_NAME, DelegationService) {}
+    project.tasks.register(taskName, Delegate) { Delegate task ->
+      task.dependsOn('deploy')
+      if (project.hasProperty('wrenchDelegationMode'))
+        task.mode.set(project.wrenchDelegationMode as String)
+      task.delegationService.set(service)
+      task.usesService(service)
+      if (null != trace)
+        task.traceService.set(trace)
+      task.executable.set((project.wrench.gradlew as File).absolutePath)
+      task.taskNames.add(formatStagedTaskName(qualifier, nodeName))
       // Delegate to the wrench:
-      doFirst {
-        project.exec {
-          commandLine(args)
-          workingDir(project.wrench.target.staging.dir as File)
-        }
+      task.arguments.set(getDelegationArguments(project))
+      task.workingDir.set(project.wrench.target.staging.dir as File)
+    }
+  }
+
+  /**
+   * Registers a task to delegate a runbook to the staged wrench build one
+   * checkpoint at a time, following the runbook graph.
+   *
+   * @param project The project being configured
+   * @param taskName The name of the delegating task
+   * @param runbookName The name of the runbook to delegate
+   */
+  void configureGraphDelegation(Project project, String taskName, String runbookName) {
+    project.tasks.register(taskName, DelegateGraph) { DelegateGraph task ->
+      task.dependsOn('deploy')
+      Target target = project.wrench.script.target as Target
+      Runbook runbook = target.runbooks.find { Runbook runbook -> runbook.name == runbookName }
+      Map<String, Checkpoint> checkpoints = target.checkpoints.collectEntries { Checkpoint checkpoint ->
+        [(checkpoint.name): checkpoint]
       }
+      RunbookGraph graph = RunbookGraph.create(runbook, checkpoints, getIndependentCheckpoints(project))
+      task.dependencies.set(graph.dependencies.collectEntries { String name, List<String> dependsOn ->
+        [(formatStagedTaskName('checkpoint', name)): dependsOn.collect { formatStagedTaskName('checkpoint', it) }]
+      })
+      if (project.hasProperty('wrenchRunbookWorkers'))
+        task.workerLimit.set(WorkerLimitService.register(project, 'wrenchRunbookWorkers',
+          Integer.parseInt(project.wrenchRunbookWorkers as String)))
+      // Record completed checkpoints in the workspace, to resume from:
+      if (isJournaled(project))
+        task.journalFile.set(new File(project.wrench.target.workspace.dir as File, CheckpointJournal.FILE_NAME))
+      if (null != trace)
+        task.traceService.set(trace)
+      task.executable.set((project.wrench.gradlew as File).absolutePath)
+      task.arguments.set(getDelegationArguments(project))
+      task.workingDir.set(project.wrench.target.staging.dir as File)
+    }
+  }
+
+  /**
+   * Returns the checkpoint names listed in the
+   * <code>wrenchIndependentCheckpoints</code> project property, if set.
+   */
+  static List<String> getIndependentCheckpoints(Project project) {
+    (project.hasProperty('wrenchIndependentCheckpoints')
+      ? (project.wrenchIndependentCheckpoints as String).split(',').collect { it.trim() }.findAll()
+      : []) as List<String>
+  }
+
+  /**
+   * Registers a task to run a runbook on the hosts of all the staging
+   * targets, many at a time.
+   *
+   * <p>The staged build of each target is deployed to a directory per host
+   * under <code>wrench.target.hosts.dir</code> and run there. The project
+   * can set <code>wrenchFleetParallelism</code>, the number of hosts to run
+   * at a time across the build, <code>wrenchFleetWaveSize</code>, the number
+   * of hosts per wave, and <code>wrenchFleetMaxFailures</code>, the number
+   * of failed hosts after which no more waves are started.</p>
+   *
+   * @param project The project being configured
+   * @param taskName The name of the fan-out task
+   * @param runbookName The name of the runbook to run
+   * @see FanOut
+   */
+  void configureFleetDelegation(Project project, String taskName, String runbookName) {
+    project.tasks.register(taskName, FanOut) { FanOut task ->
+      task.dependsOn('stage')
+      Map<String, Map> targets = project.extensions.staging.targetValues.get()
+      targets.values().each { Map target ->
+        task.host(target.name as String, getStagingDir(project, target))
+      }
+      task.hostsDir.set(new File(project.wrench.target.hosts.dir as File, 'fleet'))
+      task.executable.set(isWindows() ? 'gradlew.bat' : 'gradlew')
+      task.taskNames.add(formatStagedTaskName('runbook', runbookName))
+      // Each staged build has its own host and environment bound already:
+      task.arguments.set(getDelegationArguments(project).findAll { String argument ->
+        !argument.startsWith('-PwrenchHostName=') && !argument.startsWith('-PwrenchEnvironmentName=')
+      })
+      if (project.hasProperty('wrenchFleetParallelism'))
+        task.workerLimit.set(WorkerLimitService.register(project, 'wrenchFleetParallelism',
+          Integer.parseInt(project.wrenchFleetParallelism as String)))
+      [
+        wrenchFleetWaveSize: task.waveSize,
+        wrenchFleetMaxFailures: task.maxFailures
+      ].each { String propertyName, Property<Integer> property ->
+        if (project.hasProperty(propertyName))
+          property.set(Integer.parseInt(project.getProperties().get(propertyName) as String))
+      }
+      task.summaryFile.set(new File(project.buildDir, "wrench/fleet/${taskName}.txt"))
+      if (null != trace)
+        task.traceService.set(trace)
+    }
+  }
+
+  static boolean isJournaled(Project project) {
+    project.hasProperty('wrenchJournal') && Boolean.parseBoolean(project.wrenchJournal as String)
+  }
+
+  static String formatStagedTaskName(String qualifier, String nodeName) {
+    qualifier.isEmpty() ? nodeName : qualifier + Strings.toCamelCase(nodeName, [';'])
+  }
+
+  /**
+   * The command line arguments for the staged build, apart from the tasks.
+   *
+   * @param project The project being configured
+   * @return The arguments
+   */
+  List<String> getDelegationArguments(Project project) {
+    List<String> args = ['--info', '--stacktrace']
+    if (project.gradle.startParameter.isRefreshDependencies())
+      args.add('--refresh-dependencies')
+    // Include known wrench properties for delegation:
+    [
+      'wrenchApplicationPath',
+      'wrenchEnvironmentName',
+      'wrenchHostName',
+      'wrenchInstancePath',
+      'wrenchPropertiesArtifactId',
+      'wrenchPropertiesGroup',
+      'wrenchSystemId'
+    ].each {
+      if (project.hasProperty(it))
+        args.add("-P${it}=${project.getProperties().get(it)}")
     }
+    // If the project has configured properties to be passed along when
+    // delegating to wrench tasks, add them here:
+    if (project.hasProperty('wrenchDelegation'))
+      args.addAll(project.wrenchDelegation as List<String>)
+    args.collect { it.toString() }
   }
 
   void configurePublishing(Project project) {
@@ -0,0 +1,103 @@
+package com.brambolt.wrench.staging
+
+import com.brambolt.wrench.runbooks.Checkpoint
+import com.brambolt.wrench.runbooks.Runbook
+import org.gradle.api.GradleException
+
+/**
+ * The dependency graph of the checkpoints of a runbook.
+ *
+ * <p>By default each checkpoint depends on the checkpoint declared before it,
+ * so the runbook runs in declaration order. A checkpoint that declares
+ * <code>dependsOn</code> depends on the named checkpoints only, and a
+ * checkpoint that declares <code>independent</code> depends on none. The
+ * checkpoints that don't depend on each other can then run concurrently.</p>
+ *
+ * <p>The runbook runtime does not declare either property yet, so the
+ * checkpoints that depend on none can also be named when the graph is
+ * created, from the <code>wrenchIndependentCheckpoints</code> project
+ * property.</p>
+ */
+class RunbookGraph {
+
+  /**
+   * The checkpoint names in declaration order, with the names of the
+   * checkpoints each depends on.
+   */
+  final Map<String, List<String>> dependencies = new LinkedHashMap<>()
+
+  /**
+   * Creates the graph for a runbook.
+   * @param runbook The runbook
+   * @param checkpoints The checkpoints of the target, by name
+   * @param independent The names of further checkpoints that depend on none
+   * @return The runbook graph
+   * @throws GradleException If an independent checkpoint is not in the runbook
+   */
+  static RunbookGraph create(
+    Runbook runbook, Map<String, Checkpoint> checkpoints, Collection<String> independent = []) {
+    RunbookGraph graph = new RunbookGraph()
+    String previous = null
+    getCheckpointNames(runbook, checkpoints).each { String name ->
+      Checkpoint checkpoint = checkpoints.get(name)
+      List<String> dependsOn = getDeclaredDependencies(checkpoint)
+      if (null != dependsOn)
+        graph.dependencies.put(name, dependsOn)
+      else if (isIndependent(checkpoint) || independent.contains(name) || null == previous)
+        graph.dependencies.put(name, [])
+      else graph.dependencies.put(name, [previous])
+      previous = name
+    }
+    graph.throwIfUnknown()
+    (independent - graph.dependencies.keySet()).each {
+      throw new GradleException("Independent checkpoint ${it} is not in the runbook")
+    }
+    graph
+  }
+
+  static List<String> getCheckpointNames(Runbook runbook, Map<String, Checkpoint> checkpoints) {
+    if (!runbook.hasProperty('checkpoints'))
+      return checkpoints.keySet() as List<String>
+    (runbook.checkpoints as Collection).collect { it instanceof Checkpoint ? it.name : it.toString() }
+  }
+
+  static List<String> getDeclaredDependencies(Checkpoint checkpoint) {
+    if (null == checkpoint || !checkpoint.hasProperty('dependsOn') || null == checkpoint.dependsOn)
+      return null
+    (checkpoint.dependsOn as Collection).collect { it instanceof Checkpoint ? it.name : it.toString() }
+  }
+
+  static boolean isIndependent(Checkpoint checkpoint) {
+    null != checkpoint && checkpoint.hasProperty('independent') && checkpoint.independent
+  }
+
+  void throwIfUnknown() {
+    dependencies.each { String name, List<String> dependsOn ->
+      dependsOn.each {
+        if (!dependencies.containsKey(it))
+          throw new GradleException("Checkpoint ${name} depends on ${it}, which is not in the runbook")
+      }
+    }
+  }
+
+  /**
+   * Orders the checkpoints in waves, where each checkpoint depends only on
+   * checkpoints in earlier waves. The checkpoints of a wave keep their
+   * declaration order.
+   * @return The waves of checkpoint names
+   */
+  List<List<String>> getWaves() {
+    List<List<String>> waves = []
+    Set<String> done = new HashSet<>()
+    while (done.size() < dependencies.size()) {
+      List<String> wave = dependencies.findAll { String name, List<String> dependsOn ->
+        !done.contains(name) && done.containsAll(dependsOn)
+      }.keySet() as List<String>
+      if (wave.isEmpty())
+        throw new GradleException("Checkpoint dependency cycle: ${dependencies.keySet() - done}")
+      waves.add(wave)
+      done.addAll(wave)
+    }
+    waves
+  }
+}
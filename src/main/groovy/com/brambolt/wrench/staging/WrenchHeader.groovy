@@ -0,0 +1,123 @@
+package com.brambolt.wrench.staging
+
+import java.util.regex.Matcher
+import java.util.regex.Pattern
+
+/**
+ * The target declarations at the top of a file wrench.
+ *
+ * <p>The header is read line by line, without compiling the wrench script.
+ * Only the <code>system { ... }</code>, <code>host</code> and
+ * <code>environment</code> declarations are recognized, after any imports,
+ * and reading stops at the first statement that is none of these, so the
+ * rest of the script is never read, whether it declares checkpoints or
+ * builds them dynamically. The system block may span any number of lines
+ * and hold nested blocks; it ends where its braces balance. For example,
+ * for</p>
+ * <pre>
+ *   system {
+ *     [id: 'some.example.system']
+ *   }
+ *
+ *   host hostName
+ *
+ *   environment environmentName
+ * </pre>
+ * <p>the system identifier is <code>some.example.system</code>, and the host
+ * and environment names are bindings, not literals.</p>
+ */
+class WrenchHeader {
+
+  private static final Pattern SYSTEM = ~/^system\b.*/
+
+  private static final Pattern SYSTEM_ID = ~/\bid\s*:\s*['"]([^'"]+)['"]/
+
+  private static final Pattern HOST = ~/^host[\s(]+(['"]?)([\w.\-]+)\1/
+
+  private static final Pattern ENVIRONMENT = ~/^environment[\s(]+(['"]?)([\w.\-]+)\1/
+
+  private static final Pattern HEADER = ~/^(import|package|system|host|environment)\b.*/
+
+  private static final Pattern STRING = ~/'[^']*'|"[^"]*"/
+
+  private static final Pattern LINE_COMMENT = ~/\/\/.*$/
+
+  /**
+   * The system identifier, or null if the header has none.
+   */
+  String systemId
+
+  /**
+   * The host name, if the header declares a literal host.
+   */
+  String hostName
+
+  /**
+   * The environment name, if the header declares a literal environment.
+   */
+  String environmentName
+
+  /**
+   * Reads the header of the parameter wrench file.
+   * @param wrenchFile The wrench file to read
+   * @return The header, with null values for anything not declared
+   */
+  static WrenchHeader scan(File wrenchFile) {
+    WrenchHeader header = new WrenchHeader()
+    wrenchFile.withReader { Reader reader ->
+      scan(reader, header)
+    }
+    header
+  }
+
+  static void scan(Reader reader, WrenchHeader header) {
+    BufferedReader lines = new BufferedReader(reader)
+    boolean inComment = false
+    boolean inSystem = false
+    boolean opened = false
+    int depth = 0
+    String line
+    while (null != (line = lines.readLine())) {
+      line = line.trim()
+      if (inComment || line.startsWith('/*')) {
+        inComment = !line.contains('*/')
+        continue
+      }
+      if (line.isEmpty() || line.startsWith('//') || line.startsWith('#!'))
+        continue
+      if (!inSystem && SYSTEM.matcher(line).matches()) {
+        inSystem = true
+        opened = false
+        depth = 0
+      }
+      if (inSystem) {
+        Matcher id = SYSTEM_ID.matcher(line)
+        if (null == header.systemId && id.find())
+          header.systemId = id.group(1)
+        // Count the braces outside strings and comments, across lines:
+        String code = LINE_COMMENT.matcher(STRING.matcher(line).replaceAll("''")).replaceAll('')
+        depth += code.count('{') - code.count('}')
+        opened = opened || code.contains('{')
+        inSystem = !opened || 0 < depth
+        continue
+      }
+      // The header ends at the first statement that is not a declaration:
+      if (!HEADER.matcher(line).matches())
+        break
+      Matcher host = HOST.matcher(line)
+      if (host.find() && !host.group(1).isEmpty())
+        header.hostName = host.group(2)
+      Matcher environment = ENVIRONMENT.matcher(line)
+      if (environment.find() && !environment.group(1).isEmpty())
+        header.environmentName = environment.group(2)
+    }
+  }
+
+  /**
+   * Checks whether the header names a single fixed target.
+   * @return True iff both the host and environment are literals
+   */
+  boolean hasLiteralTarget() {
+    null != hostName && null != environmentName
+  }
+}
@@ -0,0 +1,137 @@
+package com.brambolt.wrench.staging
+
+import java.util.stream.Collectors
+
+/**
+ * A persistent index of the leaf projects that hold wrenches.
+ *
+ * <p>For every leaf project directory the index records whether the
+ * directory has a file wrench and whether it has a Gradle build file, along
+ * with the modification time of the directory. Adding or removing either
+ * file changes the directory modification time, so a leaf only needs to be
+ * probed again when its directory time differs from the recorded one.</p>
+ *
+ * <p>Leaves that do need probing are probed in parallel, which matters when
+ * the projects are on network storage.</p>
+ */
+class WrenchProjectIndex {
+
+  /**
+   * The index directory relative to the root project build directory.
+   */
+  static final String DEFAULT_INDEX_DIR_RELPATH = 'wrench/projects'
+
+  private static final String WRENCH_FILE_NAME_KEY = '@wrenchFileName'
+
+  private static final String BUILD_FILE_NAME_KEY = '@buildFileName'
+
+  /**
+   * The probe result for a single leaf project directory.
+   */
+  static class Entry {
+
+    final long lastModified
+
+    final boolean hasWrenchFile
+
+    final boolean hasBuildFile
+
+    Entry(long lastModified, boolean hasWrenchFile, boolean hasBuildFile) {
+      this.lastModified = lastModified
+      this.hasWrenchFile = hasWrenchFile
+      this.hasBuildFile = hasBuildFile
+    }
+
+    boolean isWrenchProject() {
+      hasWrenchFile && !hasBuildFile
+    }
+
+    String format() {
+      "${lastModified},${hasWrenchFile},${hasBuildFile}"
+    }
+
+    static Entry parse(String value) {
+      String[] parts = value.split(',')
+      new Entry(Long.parseLong(parts[0]), Boolean.parseBoolean(parts[1]), Boolean.parseBoolean(parts[2]))
+    }
+  }
+
+  final File indexFile
+
+  final String wrenchFileName
+
+  final String buildFileName
+
+  final Map<String, Entry> entries = new TreeMap<>()
+
+  WrenchProjectIndex(File indexFile, String wrenchFileName, String buildFileName) {
+    this.indexFile = indexFile
+    this.wrenchFileName = wrenchFileName
+    this.buildFileName = buildFileName
+  }
+
+  /**
+   * Loads the index, which is empty if the file does not exist or was
+   * written for different file names.
+   *
+   * @param indexFile The index file
+   * @param wrenchFileName The file wrench file name to check for
+   * @param buildFileName The Gradle build file name to check for
+   * @return The loaded index
+   */
+  static WrenchProjectIndex load(File indexFile, String wrenchFileName, String buildFileName) {
+    WrenchProjectIndex index = new WrenchProjectIndex(indexFile, wrenchFileName, buildFileName)
+    if (!indexFile.isFile())
+      return index
+    Properties properties = new Properties()
+    indexFile.withInputStream { InputStream stream -> properties.load(stream) }
+    if (wrenchFileName != properties.getProperty(WRENCH_FILE_NAME_KEY) ||
+      buildFileName != properties.getProperty(BUILD_FILE_NAME_KEY))
+      return index
+    properties.stringPropertyNames()
+      .findAll { String key -> !key.startsWith('@') }
+      .each { String path -> index.entries[path] = Entry.parse(properties.getProperty(path)) }
+    index
+  }
+
+  /**
+   * Brings the index up to date for the parameter leaves, and writes it if
+   * anything changed.
+   *
+   * @param leaves The leaf project directories, by project path
+   * @return The paths of the leaves that have a file wrench and no build file
+   */
+  List<String> update(Map<String, File> leaves) {
+    Map<String, Entry> probed = leaves.entrySet().parallelStream()
+      .collect(Collectors.toMap(
+        { Map.Entry<String, File> leaf -> leaf.key },
+        { Map.Entry<String, File> leaf -> probe(leaf.key, leaf.value) }))
+    boolean changed = probed.any { String path, Entry entry -> !entries[path].is(entry) } ||
+      !entries.keySet().equals(probed.keySet())
+    entries.clear()
+    entries.putAll(probed)
+    if (changed)
+      write()
+    entries.findAll { String path, Entry entry -> entry.isWrenchProject() }.keySet().toList()
+  }
+
+  /**
+   * Returns the recorded entry if the directory is unchanged, or probes it.
+   */
+  Entry probe(String path, File dir) {
+    long lastModified = dir.lastModified()
+    Entry entry = entries[path]
+    if (null != entry && entry.lastModified == lastModified)
+      return entry
+    new Entry(lastModified, new File(dir, wrenchFileName).exists(), new File(dir, buildFileName).exists())
+  }
+
+  void write() {
+    Properties properties = new Properties()
+    properties.setProperty(WRENCH_FILE_NAME_KEY, wrenchFileName)
+    properties.setProperty(BUILD_FILE_NAME_KEY, buildFileName)
+    entries.each { String path, Entry entry -> properties.setProperty(path, entry.format()) }
+    indexFile.parentFile.mkdirs()
+    indexFile.withOutputStream { OutputStream stream -> properties.store(stream, null) }
+  }
+}
@@ -0,0 +1,44 @@
+package com.brambolt.wrench.staging.services
+
+import org.gradle.api.services.BuildService
+import org.gradle.api.services.BuildServiceParameters
+import org.gradle.tooling.GradleConnector
+import org.gradle.tooling.ProjectConnection
+
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Holds Tooling API connections to staged wrench builds.
+ *
+ * <p>A connection is opened the first time a staging directory is delegated
+ * to, and reused by every later delegation to the same directory during the
+ * build. The connections are closed when the build finishes; the daemons
+ * behind them stay up, so the next build reuses a warm daemon.</p>
+ */
+abstract class DelegationService implements BuildService<BuildServiceParameters.None>, AutoCloseable {
+
+  static final String DEFAULT_SERVICE_NAME = 'wrenchDelegation'
+
+  private final Map<File, ProjectConnection> connections = new ConcurrentHashMap<>()
+
+  /**
+   * Returns the connection for the staged build in the parameter directory,
+   * connecting if necessary.
+   *
+   * @param stagingDir The staging directory holding the staged build
+   * @return The connection to the staged build
+   */
+  ProjectConnection connect(File stagingDir) {
+    connections.computeIfAbsent(stagingDir.canonicalFile) { File dir ->
+      GradleConnector.newConnector()
+        .forProjectDirectory(dir)
+        .connect()
+    }
+  }
+
+  @Override
+  void close() {
+    connections.values().each { ProjectConnection connection -> connection.close() }
+    connections.clear()
+  }
+}
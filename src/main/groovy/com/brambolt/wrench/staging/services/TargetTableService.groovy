@@ -0,0 +1,176 @@
+package com.brambolt.wrench.staging.services
+
+import com.brambolt.wrench.InstanceProperties
+import org.gradle.api.GradleException
+import org.gradle.api.file.DirectoryProperty
+import org.gradle.api.services.BuildService
+import org.gradle.api.services.BuildServiceParameters
+
+import java.security.MessageDigest
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Resolves the staging targets of a system from the instance properties.
+ *
+ * <p>Each system is resolved once per build, however many projects stage
+ * it; only a project with its own local copy of the application or instance
+ * properties resolves a table of its own. The resolved target table is also
+ * written to the cache directory, keyed on a checksum of every source of the
+ * application and instance properties, so later builds only resolve the
+ * instance properties again if any of them changed. The tables are shared
+ * between projects, so they are returned read-only.</p>
+ *
+ * <p>Only the <code>targets</code> entries of the system are read from the
+ * instance properties; the rest of the properties are never converted.</p>
+ */
+abstract class TargetTableService implements BuildService<Parameters> {
+
+  static final String DEFAULT_SERVICE_NAME = 'wrenchTargetTables'
+
+  /**
+   * The target attributes read from the instance properties. Cached tables
+   * are keyed on these, so adding one resolves the tables again.
+   */
+  static final List<String> TARGET_ATTRIBUTES = ['environment.name', 'host.name', 'copyStrategy']
+
+  interface Parameters extends BuildServiceParameters {
+
+    /**
+     * The directory to keep resolved target tables in.
+     */
+    DirectoryProperty getCacheDir()
+  }
+
+  private final Map<String, Map<String, Map>> tables = new ConcurrentHashMap<>()
+
+  /**
+   * Returns the targets of the system, resolving them if necessary.
+   *
+   * @param applicationPath The application properties path
+   * @param instancePath The instance properties path
+   * @param systemId The system identifier
+   * @param projectDir The directory of the project staging the system, which
+   * may hold local copies of the properties files
+   * @return The target definitions, by target name
+   * @throws GradleException If the system has no targets
+   */
+  Map<String, Map> getTargets(String applicationPath, String instancePath, String systemId, File projectDir) {
+    List<String> parts = [applicationPath, instancePath, systemId]
+    // Projects without local properties files share the table:
+    if ([applicationPath, instancePath].any { String path -> new File(projectDir, path).isFile() })
+      parts.add(projectDir.absolutePath)
+    String key = parts.join('\n')
+    tables.computeIfAbsent(key) {
+      immutable(load(applicationPath, instancePath, systemId, projectDir, key))
+    }
+  }
+
+  private static Map<String, Map> immutable(Map<String, Map> targets) {
+    Map<String, Map> copy = new LinkedHashMap<>()
+    targets.each { String name, Map target ->
+      copy[name] = Collections.unmodifiableMap(target.collectEntries { k, v ->
+        [(k): v instanceof Map ? Collections.unmodifiableMap(new LinkedHashMap(v)) : v]
+      })
+    }
+    Collections.unmodifiableMap(copy)
+  }
+
+  private Map<String, Map> load(
+    String applicationPath, String instancePath, String systemId, File projectDir, String key) {
+    String checksum = checksum(
+      ([key] + TARGET_ATTRIBUTES).join('\n'), [applicationPath, instancePath], projectDir, systemId)
+    File cacheFile = null == checksum ? null : new File(parameters.cacheDir.get().asFile, "${checksum}.properties")
+    Properties table = new Properties()
+    if (null != cacheFile && cacheFile.isFile())
+      cacheFile.withInputStream { InputStream stream -> table.load(stream) }
+    else {
+      table = resolve(applicationPath, instancePath, systemId, projectDir)
+      if (null != cacheFile) {
+        cacheFile.parentFile.mkdirs()
+        cacheFile.withOutputStream { OutputStream stream -> table.store(stream, systemId) }
+      }
+    }
+    toTargets(table, systemId)
+  }
+
+  /**
+   * Reads only the target entries of the system from the instance
+   * properties, for example <code>some.example.system.targets.listing</code>.
+   */
+  static Properties resolve(String applicationPath, String instancePath, String systemId, File projectDir) {
+    InstanceProperties instanceProperties = InstanceProperties.getFor(
+      applicationPath, instancePath, systemId, projectDir)
+    String prefix = "${systemId}.targets."
+    Properties table = new Properties()
+    String listing = instanceProperties.getProperty("${prefix}listing")
+    if (null == listing)
+      return table
+    table.setProperty('listing', listing)
+    listing.split(',').each { String it ->
+      String name = it.trim()
+      TARGET_ATTRIBUTES.each { String suffix ->
+        String value = instanceProperties.getProperty("${prefix}${name}.${suffix}")
+        if (null != value)
+          table.setProperty("${name}.${suffix}", value)
+      }
+    }
+    table
+  }
+
+  static Map<String, Map> toTargets(Properties table, String systemId) {
+    String listing = table.getProperty('listing')
+    if (null == listing)
+      throw new GradleException("No targets defined for ${systemId}")
+    Map<String, Map> targets = [:]
+    listing.split(',').each { String it ->
+      String name = it.trim()
+      targets[name] = [
+        name: name,
+        environment: [name: table.getProperty("${name}.environment.name")],
+        host: [name: table.getProperty("${name}.host.name")]
+      ]
+      // The copy strategy is optional, see CopyStrategy:
+      if (null != table.getProperty("${name}.copyStrategy"))
+        targets[name].copyStrategy = table.getProperty("${name}.copyStrategy")
+    }
+    targets
+  }
+
+  /**
+   * Computes a checksum of every source the properties can come from: all
+   * the properties resources of the parameter paths on the class path, in
+   * class path order, any local properties files in the project directory,
+   * and the system properties and environment variables that can override
+   * the properties of the system.
+   *
+   * @return The checksum, or null if no properties were found to checksum
+   */
+  static String checksum(String key, List<String> paths, File projectDir, String systemId) {
+    MessageDigest digest = MessageDigest.getInstance('SHA-256')
+    digest.update(key.bytes)
+    boolean found = false
+    paths.each { String path ->
+      InstanceProperties.classLoader.getResources(path).each { URL resource ->
+        digest.update(resource.toString().bytes)
+        resource.withInputStream { InputStream stream -> digest.update(stream.bytes) }
+        found = true
+      }
+      File local = new File(projectDir, path)
+      if (local.isFile()) {
+        digest.update(local.absolutePath.bytes)
+        digest.update(local.bytes)
+        found = true
+      }
+    }
+    String environmentPrefix = systemId.toUpperCase().replaceAll('[^A-Z0-9]', '_')
+    update(digest, System.properties.findAll { k, v -> k.toString().startsWith(systemId) })
+    update(digest, System.getenv().findAll { k, v -> k.toUpperCase().startsWith(environmentPrefix) })
+    found ? digest.digest().encodeHex().toString() : null
+  }
+
+  private static void update(MessageDigest digest, Map overrides) {
+    new TreeMap(overrides.collectEntries { k, v -> [(k.toString()): v.toString()] }).each { k, v ->
+      digest.update("${k}=${v}\n".toString().bytes)
+    }
+  }
+}
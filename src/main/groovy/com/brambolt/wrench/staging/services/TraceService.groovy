@@ -0,0 +1,356 @@
+package com.brambolt.wrench.staging.services
+
+import groovy.json.JsonOutput
+import org.gradle.api.Project
+import org.gradle.api.file.DirectoryProperty
+import org.gradle.api.logging.Logger
+import org.gradle.api.logging.Logging
+import org.gradle.api.provider.Provider
+import org.gradle.api.services.BuildService
+import org.gradle.api.services.BuildServiceParameters
+import org.gradle.build.event.BuildEventsListenerRegistry
+import org.gradle.tooling.events.FinishEvent
+import org.gradle.tooling.events.OperationCompletionListener
+import org.gradle.tooling.events.task.TaskFailureResult
+import org.gradle.tooling.events.task.TaskFinishEvent
+import org.gradle.tooling.events.task.TaskSkippedResult
+import org.gradle.tooling.events.task.TaskSuccessResult
+
+import java.lang.management.ManagementFactory
+import java.lang.management.ThreadMXBean
+import java.nio.charset.StandardCharsets
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.atomic.AtomicBoolean
+
+/**
+ * Records where a staging build spends its time.
+ *
+ * <p>Spans are recorded for the configuration phases of each wrench
+ * project, for each target staged in a worker, for each delegated runbook,
+ * checkpoint or step, and for each host of a fleet run. Every executed task
+ * is recorded as well. A span records the wall time and, for the thread
+ * that ran it, the bytes allocated and the read and write calls made, where
+ * the JVM and the operating system report them. The work done by a staged
+ * build in its own process is only counted as wall time.</p>
+ *
+ * <p>When the build finishes the spans are written to
+ * <code>trace.json</code>, in the Chrome trace event format, which can be
+ * opened in <code>chrome://tracing</code> or Perfetto, and summarized in
+ * <code>trace.txt</code>, which is also logged.</p>
+ *
+ * <p>Tracing is enabled by setting the <code>wrenchTrace</code> project
+ * property to <code>true</code>.</p>
+ */
+abstract class TraceService implements BuildService<Parameters>, OperationCompletionListener, AutoCloseable {
+
+  static final String DEFAULT_SERVICE_NAME = 'wrenchTrace'
+
+  /**
+   * The trace directory, relative to the root project build directory.
+   */
+  static final String DEFAULT_DIR_RELPATH = 'wrench/trace'
+
+  /**
+   * The per-thread I/O counters on Linux.
+   */
+  static final File THREAD_IO_FILE = new File('/proc/thread-self/io')
+
+  private static final Logger LOGGER = Logging.getLogger(TraceService)
+
+  interface Parameters extends BuildServiceParameters {
+
+    /**
+     * The directory to write the trace and the summary to.
+     */
+    DirectoryProperty getOutputDir()
+  }
+
+  /**
+   * A recorded span, in microseconds since the epoch.
+   */
+  static class Event {
+
+    final String category
+
+    final String name
+
+    final long start
+
+    final long duration
+
+    final long threadId
+
+    final Map<String, Object> args
+
+    Event(String category, String name, long start, long duration, long threadId, Map<String, Object> args) {
+      this.category = category
+      this.name = name
+      this.start = start
+      this.duration = duration
+      this.threadId = threadId
+      this.args = args
+    }
+  }
+
+  /**
+   * The measurements of the current thread at a point in time.
+   */
+  static class Sample {
+
+    private static final ThreadMXBean THREADS = ManagementFactory.threadMXBean
+
+    final long nanos = System.nanoTime()
+
+    final long allocated = getAllocatedBytes()
+
+    final Map<String, Long> io = getThreadIo()
+
+    static long getAllocatedBytes() {
+      (THREADS instanceof com.sun.management.ThreadMXBean)
+        ? ((com.sun.management.ThreadMXBean) THREADS).getThreadAllocatedBytes(Thread.currentThread().id)
+        : -1L
+    }
+
+    /**
+     * Reads the read and write call counts and byte counts of the current
+     * thread, or returns an empty map where they are not available.
+     */
+    static Map<String, Long> getThreadIo() {
+      if (!THREAD_IO_FILE.canRead())
+        return [:]
+      Map<String, Long> counters = [:]
+      try {
+        THREAD_IO_FILE.readLines().each { String line ->
+          int colon = line.indexOf(':')
+          String key = 0 < colon ? line.substring(0, colon) : null
+          if (key in ['syscr', 'syscw', 'rchar', 'wchar'])
+            counters.put(key, Long.parseLong(line.substring(colon + 1).trim()))
+        }
+      } catch (IOException | NumberFormatException ignored) {
+        return [:]
+      }
+      counters
+    }
+  }
+
+  /**
+   * A span in progress on the current thread.
+   */
+  class Span {
+
+    final String category
+
+    final String name
+
+    final Map<String, Object> args
+
+    final Sample start = new Sample()
+
+    Span(String category, String name, Map<String, Object> args) {
+      this.category = category
+      this.name = name
+      this.args = args
+    }
+
+    void end() {
+      Sample end = new Sample()
+      Map<String, Object> measured = new LinkedHashMap<>(args)
+      if (0 <= start.allocated && 0 <= end.allocated)
+        measured.put('allocated', end.allocated - start.allocated)
+      end.io.each { String key, Long value ->
+        if (start.io.containsKey(key))
+          measured.put(key, value - start.io.get(key))
+      }
+      record(new Event(category, name, toMicros(start.nanos),
+        Math.max(0L, (end.nanos - start.nanos).intdiv(1000L) as long), Thread.currentThread().id, measured))
+    }
+  }
+
+  /**
+   * The spans that are not recorded on a thread of this build, the executed
+   * tasks, are shown on the lanes of a separate process in the trace.
+   */
+  private static final int TASKS_PID = 2
+
+  private final long originNanos = System.nanoTime()
+
+  private final long originMicros = System.currentTimeMillis() * 1000L
+
+  private final Queue<Event> events = new ConcurrentLinkedQueue<>()
+
+  private final AtomicBoolean listening = new AtomicBoolean()
+
+  /**
+   * Registers the trace service, if the project enables tracing, and
+   * subscribes it to the task completion events of the build.
+   *
+   * @param project The project being configured
+   * @param buildEvents The build events listener registry, or null
+   * @return The trace service, or null if tracing is not enabled
+   */
+  static Provider<TraceService> register(Project project, BuildEventsListenerRegistry buildEvents) {
+    if (!isEnabled(project))
+      return null
+    Provider<TraceService> service = project.gradle.sharedServices.registerIfAbsent(
+      DEFAULT_SERVICE_NAME, TraceService) { spec ->
+      spec.parameters.outputDir.set(new File(project.rootProject.buildDir, DEFAULT_DIR_RELPATH))
+    }
+    // Every wrench project registers, but the service listens once:
+    if (null != buildEvents && service.get().listen())
+      buildEvents.onTaskCompletion(service)
+    service
+  }
+
+  /**
+   * Returns true the first time it is called, when the service should be
+   * subscribed to the build events.
+   */
+  boolean listen() {
+    listening.compareAndSet(false, true)
+  }
+
+  static boolean isEnabled(Project project) {
+    project.hasProperty('wrenchTrace') && Boolean.parseBoolean(project.wrenchTrace as String)
+  }
+
+  /**
+   * Starts a span on the current thread, which must be ended on the same
+   * thread.
+   *
+   * @param category The span category, for example <code>phase</code>
+   * @param name The span name
+   * @param args Additional values to record with the span
+   * @return The span in progress
+   */
+  Span start(String category, String name, Map<String, Object> args = [:]) {
+    new Span(category, name, args)
+  }
+
+  /**
+   * Runs the closure in a span on the current thread.
+   *
+   * @param category The span category, for example <code>phase</code>
+   * @param name The span name
+   * @param args Additional values to record with the span
+   * @param closure The work to record
+   * @return The value returned by the closure
+   */
+  def <T> T trace(String category, String name, Map<String, Object> args = [:], Closure<T> closure) {
+    Span span = start(category, name, args)
+    try {
+      closure.call()
+    } finally {
+      span.end()
+    }
+  }
+
+  /**
+   * Runs the closure in a span, if there is a trace service, or else just
+   * runs the closure.
+   */
+  static <T> T trace(Provider<TraceService> service, String category, String name, Map<String, Object> args = [:],
+                     Closure<T> closure) {
+    (null != service && service.isPresent()) ? service.get().trace(category, name, args, closure) : closure.call()
+  }
+
+  void record(Event event) {
+    events.add(event)
+  }
+
+  @Override
+  void onFinish(FinishEvent event) {
+    if (!(event instanceof TaskFinishEvent))
+      return
+    TaskFinishEvent finish = (TaskFinishEvent) event
+    String outcome = (finish.result instanceof TaskFailureResult ? 'failed'
+      : finish.result instanceof TaskSkippedResult ? 'skipped'
+      : finish.result instanceof TaskSuccessResult && ((TaskSuccessResult) finish.result).upToDate ? 'up-to-date'
+      : 'executed')
+    record(new Event('task', finish.descriptor.taskPath, finish.result.startTime * 1000L,
+      (finish.result.endTime - finish.result.startTime) * 1000L, -1L, [outcome: outcome] as Map<String, Object>))
+  }
+
+  @Override
+  void close() {
+    if (events.isEmpty())
+      return
+    List<Event> recorded = new ArrayList<>(events).sort { Event event -> event.start }
+    File dir = parameters.outputDir.get().asFile
+    dir.mkdirs()
+    File traceFile = new File(dir, 'trace.json')
+    traceFile.setText(JsonOutput.toJson([
+      traceEvents: toTraceEvents(recorded),
+      displayTimeUnit: 'ms'
+    ]), StandardCharsets.UTF_8.name())
+    List<String> lines = summarize(recorded)
+    new File(dir, 'trace.txt').setText(lines.join('\n') + '\n', StandardCharsets.UTF_8.name())
+    lines.each { LOGGER.lifecycle(it) }
+    LOGGER.lifecycle("Wrote ${recorded.size()} trace events to ${traceFile}")
+  }
+
+  long toMicros(long nanos) {
+    originMicros + (nanos - originNanos).intdiv(1000L) as long
+  }
+
+  /**
+   * Converts the spans to complete trace events. The tasks are laid out on
+   * as few lanes as keep their spans from overlapping.
+   */
+  static List<Map> toTraceEvents(List<Event> recorded) {
+    List<Map> traceEvents = [
+      [name: 'process_name', ph: 'M', pid: 1, args: [name: 'wrench']],
+      [name: 'process_name', ph: 'M', pid: TASKS_PID, args: [name: 'tasks']]
+    ]
+    List<Long> laneEnds = []
+    recorded.each { Event event ->
+      long tid = event.threadId
+      int pid = 1
+      if (0 > tid) {
+        int lane = laneEnds.findIndexOf { long end -> end <= event.start }
+        if (0 > lane) {
+          lane = laneEnds.size()
+          laneEnds.add(0L)
+        }
+        laneEnds.set(lane, event.start + event.duration)
+        tid = lane
+        pid = TASKS_PID
+      }
+      traceEvents.add([
+        name: event.name, cat: event.category, ph: 'X',
+        ts: event.start, dur: event.duration, pid: pid, tid: tid, args: event.args])
+    }
+    traceEvents
+  }
+
+  /**
+   * Totals the spans by category and name, the categories in the order they
+   * were first recorded and the names by total time, longest first.
+   */
+  static List<String> summarize(List<Event> recorded) {
+    Map<String, Map<String, List<Event>>> byCategory = recorded
+      .groupBy { Event event -> event.category }
+      .collectEntries { String category, List<Event> events ->
+        [(category): events.groupBy { Event event -> event.name }]
+      } as Map<String, Map<String, List<Event>>>
+    int width = Math.max(4, recorded.collect { it.name.length() }.max() ?: 0)
+    String format = "%-8s  %-${width}s  %5s  %9s  %9s  %9s  %9s  %9s"
+    List<String> lines = [String.format(format, 'category', 'name', 'count', 'millis', 'max', 'alloc kB', 'reads', 'writes')]
+    byCategory.each { String category, Map<String, List<Event>> byName ->
+      byName.entrySet()
+        .sort { Map.Entry<String, List<Event>> entry -> -(entry.value.sum { Event event -> event.duration } as long) }
+        .each { Map.Entry<String, List<Event>> entry ->
+          List<Event> events = entry.value
+          lines.add(String.format(format, category, entry.key, events.size(),
+            events.sum { it.duration }.intdiv(1000L),
+            events.collect { it.duration }.max().intdiv(1000L),
+            total(events, 'allocated', 1024L), total(events, 'syscr', 1L), total(events, 'syscw', 1L)))
+        }
+    }
+    lines
+  }
+
+  static String total(List<Event> events, String key, long unit) {
+    List<Event> measured = events.findAll { it.args.containsKey(key) }
+    measured.isEmpty() ? '-' : Long.toString((measured.sum { it.args.get(key) as long } as long).intdiv(unit) as long)
+  }
+}
@@ -0,0 +1,86 @@
+package com.brambolt.wrench.staging.services
+
+import org.gradle.api.GradleException
+import org.gradle.api.Project
+import org.gradle.api.provider.Property
+import org.gradle.api.provider.Provider
+import org.gradle.api.services.BuildService
+import org.gradle.api.services.BuildServiceParameters
+
+import java.util.concurrent.Semaphore
+
+/**
+ * Bounds the work actions of one kind that run at the same time, across
+ * every project of the build.
+ *
+ * <p>A service is registered for each limiting project property and bound,
+ * for example <code>wrenchStagingParallelism</code> set to 4, with the bound
+ * as its maximum parallel usages. The tasks submit all their actions at
+ * once, and each action takes a permit when it starts and returns it when
+ * it finishes. The task thread never waits for a permit while holding a
+ * worker lease, so tasks running in parallel cannot starve each other's
+ * actions of workers; an action only ever waits for actions that are
+ * already running. Gradle's own worker limit also applies.</p>
+ */
+abstract class WorkerLimitService implements BuildService<Parameters> {
+
+  interface Parameters extends BuildServiceParameters {
+
+    /**
+     * The maximum number of actions to run at the same time.
+     */
+    Property<Integer> getMaxParallel()
+  }
+
+  private final Semaphore semaphore = new Semaphore(Math.max(1, getParameters().maxParallel.get()), true)
+
+  /**
+   * Registers the service for the parameter project property and bound, if
+   * not already registered by another project.
+   *
+   * @param project The project being configured
+   * @param propertyName The project property the bound is taken from
+   * @param maxParallel The maximum number of actions to run at the same time
+   * @return The service
+   */
+  static Provider<WorkerLimitService> register(Project project, String propertyName, int maxParallel) {
+    int bound = Math.max(1, maxParallel)
+    project.gradle.sharedServices.registerIfAbsent("${propertyName}${bound}", WorkerLimitService) { spec ->
+      spec.parameters.maxParallel.set(bound)
+      spec.maxParallelUsages.set(bound)
+    }
+  }
+
+  /**
+   * Runs the work with a permit from the service, if there is one.
+   *
+   * @param service The service property of the work parameters
+   * @param work The work to run
+   * @return The result of the work
+   */
+  static <T> T withPermit(Property<WorkerLimitService> service, Closure<T> work) {
+    service.isPresent() ? service.get().withPermit(work) : work.call()
+  }
+
+  /**
+   * Runs the work once a permit is available, and returns the permit when
+   * the work completes or fails.
+   *
+   * @param work The work to run
+   * @return The result of the work
+   * @throws GradleException If interrupted while waiting for a permit
+   */
+  def <T> T withPermit(Closure<T> work) {
+    try {
+      semaphore.acquire()
+    } catch (InterruptedException x) {
+      Thread.currentThread().interrupt()
+      throw new GradleException('Interrupted while waiting for a worker', x)
+    }
+    try {
+      work.call()
+    } finally {
+      semaphore.release()
+    }
+  }
+}
@@ -0,0 +1,148 @@
+package com.brambolt.wrench.staging.tasks
+
+import org.gradle.api.GradleException
+
+import java.nio.charset.StandardCharsets
+import java.nio.file.FileVisitResult
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.SimpleFileVisitor
+import java.nio.file.StandardOpenOption
+import java.nio.file.attribute.BasicFileAttributes
+import java.security.MessageDigest
+
+/**
+ * Records the checkpoints of a delegated runbook as they complete, so that
+ * a failed run can be resumed without repeating the completed checkpoints.
+ *
+ * <p>The journal is an append-only text file in the target workspace. Each
+ * completed checkpoint is a line <code>completed &lt;task&gt; &lt;fingerprint&gt;</code>,
+ * where the fingerprint covers the staged build and the delegation
+ * arguments. When every checkpoint of the runbook has completed, a line
+ * <code>finished &lt;runbook&gt;</code> is appended and the next run starts
+ * over from the first checkpoint.</p>
+ */
+class CheckpointJournal {
+
+  /**
+   * The journal file name, in the target workspace directory.
+   */
+  static final String FILE_NAME = '.wrench-journal'
+
+  static final String COMPLETED = 'completed'
+
+  static final String FINISHED = 'finished'
+
+  final File file
+
+  /**
+   * The fingerprint each checkpoint task completed with in the current run.
+   */
+  final Map<String, String> completed = new HashMap<>()
+
+  CheckpointJournal(File file) {
+    this.file = file
+  }
+
+  /**
+   * Reads the journal, keeping the checkpoints completed since the last
+   * finished run.
+   * @param file The journal file
+   * @return The journal, which is empty if there is no unfinished run
+   */
+  static CheckpointJournal read(File file) {
+    CheckpointJournal journal = new CheckpointJournal(file)
+    if (!file.isFile())
+      return journal
+    file.eachLine(StandardCharsets.UTF_8.name()) { String line ->
+      String[] fields = line.split(' ')
+      if (FINISHED == fields[0])
+        journal.completed.clear()
+      else if (COMPLETED == fields[0] && 3 == fields.length)
+        journal.completed.put(fields[1], fields[2])
+    }
+    journal
+  }
+
+  boolean isCompleted(String taskName, String fingerprint) {
+    fingerprint == completed.get(taskName)
+  }
+
+  void complete(String taskName, String fingerprint) {
+    append("${COMPLETED} ${taskName} ${fingerprint}")
+    synchronized (completed) {
+      completed.put(taskName, fingerprint)
+    }
+  }
+
+  void finish(String runbookTaskName) {
+    append("${FINISHED} ${runbookTaskName}")
+    completed.clear()
+  }
+
+  /**
+   * Appends a line. Checkpoints complete concurrently, so the lines are
+   * written one at a time, each with a single write.
+   */
+  void append(String line) {
+    synchronized (CheckpointJournal) {
+      try {
+        file.parentFile.mkdirs()
+        Files.write(file.toPath(), "${line}\n".toString().getBytes(StandardCharsets.UTF_8),
+          StandardOpenOption.CREATE, StandardOpenOption.APPEND, StandardOpenOption.WRITE)
+      } catch (IOException x) {
+        throw new GradleException("Unable to append to ${file.absolutePath}", x)
+      }
+    }
+  }
+
+  /**
+   * The directories the staged build writes to when it runs, which are not
+   * part of its inputs.
+   */
+  static final List<String> OUTPUT_DIR_NAMES = ['.gradle', 'build']
+
+  /**
+   * Fingerprints the inputs of a delegated runbook: every file of the staged
+   * build, such as the runbook, build file, properties and wrapper, by its
+   * path relative to the staging directory and its content, and the
+   * delegation arguments. The directories the staged build writes to are
+   * left out, so the fingerprint is the same after a checkpoint has run.
+   * @param stagingDir The staged build directory
+   * @param arguments The delegation arguments
+   * @return The fingerprint
+   */
+  static String fingerprint(File stagingDir, List<String> arguments) {
+    MessageDigest digest = MessageDigest.getInstance('SHA-256')
+    Path root = stagingDir.toPath()
+    List<Path> paths = []
+    if (Files.isDirectory(root))
+      Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+        @Override
+        FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attributes) {
+          (root != dir && root == dir.parent && OUTPUT_DIR_NAMES.contains(dir.fileName.toString())
+            ? FileVisitResult.SKIP_SUBTREE
+            : FileVisitResult.CONTINUE)
+        }
+
+        @Override
+        FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+          if (attributes.isRegularFile())
+            paths.add(file)
+          FileVisitResult.CONTINUE
+        }
+      })
+    paths.collect { Path path -> root.relativize(path).toString().replace(File.separatorChar, '/' as char) }
+      .sort()
+      .each { String relativePath ->
+        digest.update(relativePath.getBytes(StandardCharsets.UTF_8))
+        digest.update((byte) 0)
+        digest.update(Files.readAllBytes(root.resolve(relativePath)))
+      }
+    arguments.each { String argument ->
+      digest.update(argument.getBytes(StandardCharsets.UTF_8))
+      digest.update((byte) 0)
+    }
+    digest.digest().encodeHex().toString()
+  }
+}
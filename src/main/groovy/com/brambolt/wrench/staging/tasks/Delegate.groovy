@@ -0,0 +1,126 @@
+package com.brambolt.wrench.staging.tasks
+
+import com.brambolt.wrench.staging.services.DelegationService
+import com.brambolt.wrench.staging.services.TraceService
+import org.gradle.api.DefaultTask
+import org.gradle.api.GradleException
+import org.gradle.api.file.DirectoryProperty
+import org.gradle.api.logging.LogLevel
+import org.gradle.api.provider.ListProperty
+import org.gradle.api.provider.Property
+import org.gradle.api.tasks.Input
+import org.gradle.api.tasks.Internal
+import org.gradle.api.tasks.TaskAction
+import org.gradle.process.ExecOperations
+import org.gradle.process.ExecSpec
+import org.gradle.tooling.ProjectConnection
+
+import javax.inject.Inject
+
+/**
+ * Delegates execution of a runbook, checkpoint or step to the staged wrench
+ * build.
+ *
+ * <p>In the default <code>exec</code> mode the staged Gradle wrapper is
+ * executed, which starts a new Gradle client for every delegation. In the
+ * <code>tooling</code> mode the staged build is run through the Tooling API
+ * instead, with the connection held by the {@link DelegationService}, so
+ * successive delegations reuse a warm daemon.</p>
+ */
+class Delegate extends DefaultTask {
+
+  static final String EXEC_MODE = 'exec'
+
+  static final String TOOLING_MODE = 'tooling'
+
+  /**
+   * The delegation mode, <code>exec</code> or <code>tooling</code>.
+   */
+  @Input
+  final Property<String> mode = project.objects.property(String).convention(EXEC_MODE)
+
+  /**
+   * The staged Gradle wrapper, used in the <code>exec</code> mode.
+   */
+  @Input
+  final Property<String> executable = project.objects.property(String)
+
+  /**
+   * The staged build tasks to run.
+   */
+  @Input
+  final ListProperty<String> taskNames = project.objects.listProperty(String)
+
+  /**
+   * The command line arguments for the staged build, apart from the tasks.
+   */
+  @Input
+  final ListProperty<String> arguments = project.objects.listProperty(String)
+
+  /**
+   * The staging directory holding the staged build.
+   */
+  @Internal
+  final DirectoryProperty workingDir = project.objects.directoryProperty()
+
+  /**
+   * The service holding Tooling API connections, used in the
+   * <code>tooling</code> mode.
+   */
+  @Internal
+  final Property<DelegationService> delegationService = project.objects.property(DelegationService)
+
+  /**
+   * The trace service, if the build is traced.
+   */
+  @Internal
+  final Property<TraceService> traceService = project.objects.property(TraceService)
+
+  private final ExecOperations execOperations
+
+  @Inject
+  Delegate(ExecOperations execOperations) {
+    this.execOperations = execOperations
+  }
+
+  @TaskAction
+  void apply() {
+    TraceService.trace(traceService, 'delegate', taskNames.get().join(' '), [mode: mode.get()] as Map<String, Object>) {
+      switch (mode.get()) {
+        case EXEC_MODE:
+          execute()
+          break
+        case TOOLING_MODE:
+          connect()
+          break
+        default:
+          throw new GradleException("Unknown delegation mode: ${mode.get()}")
+      }
+    }
+  }
+
+  void execute() {
+    List<String> commandLine = [executable.get()]
+    commandLine.addAll(taskNames.get())
+    commandLine.addAll(arguments.get())
+    execOperations.exec { ExecSpec spec ->
+      spec.commandLine(commandLine)
+      spec.workingDir(workingDir.get().asFile)
+    }
+  }
+
+  void connect() {
+    ProjectConnection connection = delegationService.get().connect(workingDir.get().asFile)
+    // The output goes through the task logger, like the output of the tasks:
+    new LogOutputStream(logger, LogLevel.LIFECYCLE).withCloseable { OutputStream output ->
+      new LogOutputStream(logger, LogLevel.ERROR).withCloseable { OutputStream error ->
+        connection.newBuild()
+          .forTasks(taskNames.get() as String[])
+          .withArguments(arguments.get())
+          .setStandardOutput(output)
+          .setStandardError(error)
+          .run()
+      }
+    }
+  }
+}
@@ -0,0 +1,123 @@
+package com.brambolt.wrench.staging.tasks
+
+import com.brambolt.wrench.staging.RunbookGraph
+import com.brambolt.wrench.staging.services.TraceService
+import com.brambolt.wrench.staging.services.WorkerLimitService
+import org.gradle.api.DefaultTask
+import org.gradle.api.file.DirectoryProperty
+import org.gradle.api.file.RegularFileProperty
+import org.gradle.api.provider.ListProperty
+import org.gradle.api.provider.MapProperty
+import org.gradle.api.provider.Property
+import org.gradle.api.tasks.Input
+import org.gradle.api.tasks.Internal
+import org.gradle.api.tasks.TaskAction
+import org.gradle.workers.WorkQueue
+import org.gradle.workers.WorkerExecutor
+
+import javax.inject.Inject
+
+/**
+ * Delegates a runbook to the staged wrench build checkpoint by checkpoint,
+ * running the checkpoints that don't depend on each other concurrently.
+ *
+ * <p>The checkpoints run in the waves of the runbook graph; each checkpoint
+ * is a separate execution of the staged Gradle wrapper. Every checkpoint of
+ * a wave is submitted at once, and the worker limit bounds how many run at
+ * a time across the build, the next starting as soon as any running one
+ * completes. A wave starts only when the one before it has completed, and a
+ * failed checkpoint fails the task once its wave has completed. Without a
+ * worker limit the checkpoints of a wave run one at a time, and a failed
+ * checkpoint fails the task at once.</p>
+ *
+ * <p>With a journal file, completed checkpoints are recorded in the
+ * {@link CheckpointJournal}, and a run after a failure skips the checkpoints
+ * that completed with the same staged build and arguments.</p>
+ */
+class DelegateGraph extends DefaultTask {
+
+  /**
+   * The staged Gradle wrapper.
+   */
+  @Input
+  final Property<String> executable = project.objects.property(String)
+
+  /**
+   * The staged build checkpoint tasks, with the checkpoint tasks each
+   * depends on.
+   */
+  @Input
+  final MapProperty<String, List<String>> dependencies = project.objects.mapProperty(String, List)
+
+  /**
+   * The command line arguments for the staged build, apart from the tasks.
+   */
+  @Input
+  final ListProperty<String> arguments = project.objects.listProperty(String)
+
+  /**
+   * The staging directory holding the staged build.
+   */
+  @Internal
+  final DirectoryProperty workingDir = project.objects.directoryProperty()
+
+  /**
+   * The service bounding the checkpoints run at the same time, if any.
+   */
+  @Internal
+  final Property<WorkerLimitService> workerLimit = project.objects.property(WorkerLimitService)
+
+  /**
+   * The checkpoint journal, if the runbook is resumable.
+   */
+  @Internal
+  final RegularFileProperty journalFile = project.objects.fileProperty()
+
+  /**
+   * The trace service, if the build is traced.
+   */
+  @Internal
+  final Property<TraceService> traceService = project.objects.property(TraceService)
+
+  private final WorkerExecutor workerExecutor
+
+  @Inject
+  DelegateGraph(WorkerExecutor workerExecutor) {
+    this.workerExecutor = workerExecutor
+  }
+
+  @TaskAction
+  void apply() {
+    RunbookGraph graph = new RunbookGraph()
+    graph.dependencies.putAll(dependencies.get())
+    CheckpointJournal journal = journalFile.isPresent() ? CheckpointJournal.read(journalFile.get().asFile) : null
+    String fingerprint = null == journal ? null : CheckpointJournal.fingerprint(workingDir.get().asFile, arguments.get())
+    WorkQueue queue = workerExecutor.noIsolation()
+    graph.waves.each { List<String> wave ->
+      List<String> pending = null == journal ? wave : wave.findAll { !journal.isCompleted(it, fingerprint) }
+      (wave - pending).each { logger.lifecycle("Skipping ${it}, completed in an earlier run") }
+      if (!pending.isEmpty())
+        logger.lifecycle("Delegating ${pending.join(', ')}")
+      pending.each { String checkpoint ->
+        queue.submit(DelegateNodeAction) { DelegateNodeParameters parameters ->
+          parameters.executable.set(executable)
+          parameters.taskName.set(checkpoint)
+          parameters.arguments.set(arguments)
+          parameters.workingDir.set(workingDir)
+          parameters.traceService.set(traceService)
+          parameters.workerLimit.set(workerLimit)
+          if (null != journal) {
+            parameters.journalFile.set(journalFile)
+            parameters.fingerprint.set(fingerprint)
+          }
+        }
+        // Without a worker limit, run the checkpoints one at a time:
+        if (!workerLimit.isPresent())
+          queue.await()
+      }
+      queue.await()
+    }
+    // Every checkpoint has completed, so the next run starts over:
+    journal?.finish(name)
+  }
+}
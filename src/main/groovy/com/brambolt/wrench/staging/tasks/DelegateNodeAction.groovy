@@ -0,0 +1,42 @@
+package com.brambolt.wrench.staging.tasks
+
+import com.brambolt.wrench.staging.services.TraceService
+import com.brambolt.wrench.staging.services.WorkerLimitService
+import org.gradle.process.ExecOperations
+import org.gradle.process.ExecSpec
+import org.gradle.workers.WorkAction
+
+import javax.inject.Inject
+
+/**
+ * Runs a single task of the staged wrench build with the staged Gradle
+ * wrapper, like the <code>exec</code> mode of {@link Delegate}. The task is
+ * recorded in the checkpoint journal, if there is one, once it succeeds.
+ */
+abstract class DelegateNodeAction implements WorkAction<DelegateNodeParameters> {
+
+  @Inject
+  abstract ExecOperations getExecOperations()
+
+  @Override
+  void execute() {
+    DelegateNodeParameters parameters = getParameters()
+    WorkerLimitService.withPermit(parameters.workerLimit) {
+      delegate(parameters)
+    }
+  }
+
+  void delegate(DelegateNodeParameters parameters) {
+    List<String> commandLine = [parameters.executable.get(), parameters.taskName.get()]
+    commandLine.addAll(parameters.arguments.get())
+    TraceService.trace(parameters.traceService, 'delegate', parameters.taskName.get()) {
+      execOperations.exec { ExecSpec spec ->
+        spec.commandLine(commandLine)
+        spec.workingDir(parameters.workingDir.get().asFile)
+      }
+    }
+    if (parameters.journalFile.isPresent())
+      new CheckpointJournal(parameters.journalFile.get().asFile)
+        .complete(parameters.taskName.get(), parameters.fingerprint.get())
+  }
+}
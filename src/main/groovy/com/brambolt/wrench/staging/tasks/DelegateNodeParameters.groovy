@@ -0,0 +1,31 @@
+package com.brambolt.wrench.staging.tasks
+
+import com.brambolt.wrench.staging.services.TraceService
+import com.brambolt.wrench.staging.services.WorkerLimitService
+import org.gradle.api.file.DirectoryProperty
+import org.gradle.api.file.RegularFileProperty
+import org.gradle.api.provider.ListProperty
+import org.gradle.api.provider.Property
+import org.gradle.workers.WorkParameters
+
+/**
+ * The parameters for delegating a single runbook node in a worker.
+ */
+interface DelegateNodeParameters extends WorkParameters {
+
+  Property<String> getExecutable()
+
+  Property<String> getTaskName()
+
+  ListProperty<String> getArguments()
+
+  DirectoryProperty getWorkingDir()
+
+  RegularFileProperty getJournalFile()
+
+  Property<String> getFingerprint()
+
+  Property<TraceService> getTraceService()
+
+  Property<WorkerLimitService> getWorkerLimit()
+}
@@ -0,0 +1,269 @@
+package com.brambolt.wrench.staging.tasks
+
+import com.brambolt.wrench.staging.CopyStrategy
+import org.apache.tools.zip.ZipEntry
+import org.apache.tools.zip.ZipFile
+import org.gradle.api.DefaultTask
+import org.gradle.api.GradleException
+import org.gradle.api.file.DirectoryProperty
+import org.gradle.api.file.RegularFileProperty
+import org.gradle.api.logging.Logger
+import org.gradle.api.logging.Logging
+import org.gradle.api.provider.Property
+import org.gradle.api.tasks.InputFile
+import org.gradle.api.tasks.Internal
+import org.gradle.api.tasks.TaskAction
+
+import java.nio.file.Files
+import java.nio.file.LinkOption
+import java.nio.file.Path
+import java.nio.file.StandardCopyOption
+
+/**
+ * Deploys the wrench archive into the wrench target directory.
+ *
+ * <p>Only archive entries that were added or changed since the previous
+ * deployment are written, and files deployed previously that are no longer
+ * in the archive are removed. The {@link DeploymentManifest} in the target
+ * directory records what was deployed. Files the wrench itself created in
+ * the target directory are left alone.</p>
+ *
+ * <p>If <code>atomic</code> is set then the new tree is assembled in a
+ * release directory next to the target directory, and swapped in when
+ * complete by pointing the target directory, a symbolic link, at it. A
+ * partially written deployment is then never observed; see
+ * {@link #deployAtomically} for when the swap is not atomic.</p>
+ *
+ * <p>The unchanged files of the current release are hard linked into the
+ * new release, which is safe since the current release is deleted once the
+ * new one is swapped in. With <code>copyStrategy</code> set, they are
+ * written with that {@link CopyStrategy} instead, so the releases share no
+ * files.</p>
+ *
+ * <p>The target directory is modified by the wrench after deployment, so it
+ * is deliberately not declared as an output, and the task always executes.</p>
+ */
+class Deploy extends DefaultTask {
+
+  private static final Logger LOGGER = Logging.getLogger(Deploy)
+
+  /**
+   * The wrench archive to deploy.
+   */
+  @InputFile
+  final RegularFileProperty archiveFile = project.objects.fileProperty()
+
+  /**
+   * The directory to deploy the wrench into.
+   */
+  @Internal
+  final DirectoryProperty destinationDir = project.objects.directoryProperty()
+
+  /**
+   * Whether to assemble the deployment separately and swap it in.
+   */
+  @Internal
+  final Property<Boolean> atomic = project.objects.property(Boolean).convention(false)
+
+  /**
+   * How to write the unchanged files into a new release, <code>reflink</code>,
+   * <code>link</code> or <code>transfer</code>. Unset means a hard link.
+   * @see CopyStrategy
+   */
+  @Internal
+  final Property<String> copyStrategy = project.objects.property(String)
+
+  @TaskAction
+  void apply() {
+    File archive = archiveFile.get().asFile
+    File dir = destinationDir.get().asFile
+    if (atomic.get())
+      deployAtomically(archive, dir)
+    else
+      deployInPlace(archive, dir)
+  }
+
+  void deployInPlace(File archive, File dir) {
+    dir.mkdirs()
+    DeploymentManifest previous = DeploymentManifest.read(dir)
+    DeploymentManifest next = deploy(archive, previous, dir, dir)
+    (previous.records.keySet() - next.records.keySet()).each { String path ->
+      Files.deleteIfExists(new File(dir, path).toPath())
+    }
+    next.write(dir)
+  }
+
+  /**
+   * Assembles the deployment in a new release directory next to the target
+   * directory, and swaps it in. The target directory is a symbolic link to
+   * the current release, and the swap renames a link to the new release
+   * over it, which is atomic; the previous release is then deleted.
+   *
+   * <p>The first swap into a plain target directory moves the directory
+   * aside before the link takes its place, and without symbolic links the
+   * release directory is renamed into place the same way. Those swaps are
+   * not atomic: the target directory is missing between the two renames,
+   * and it is restored if the second rename fails.</p>
+   */
+  void deployAtomically(File archive, File dir) {
+    dir.parentFile.mkdirs()
+    Path target = dir.toPath()
+    Path release = Files.createTempDirectory(target.parent, getReleasePrefix(dir))
+    try {
+      DeploymentManifest previous = DeploymentManifest.read(dir)
+      if (dir.isDirectory())
+        carryOver(dir, release.toFile(), previous, CopyStrategy.parse(copyStrategy.getOrNull()))
+      deploy(archive, previous, dir, release.toFile()).write(release.toFile())
+    } catch (Exception x) {
+      release.toFile().deleteDir()
+      throw x
+    }
+    if (Files.isSymbolicLink(target)) {
+      Path current = target.resolveSibling(Files.readSymbolicLink(target))
+      if (swapLink(target, release)) {
+        deleteRelease(dir, current)
+        return
+      }
+    }
+    Path retired = target.resolveSibling(".${dir.name}.retired")
+    retired.toFile().deleteDir()
+    boolean exists = Files.exists(target, LinkOption.NOFOLLOW_LINKS)
+    if (exists)
+      Files.move(target, retired, StandardCopyOption.ATOMIC_MOVE)
+    try {
+      if (!swapLink(target, release))
+        Files.move(release, target, StandardCopyOption.ATOMIC_MOVE)
+    } catch (Exception x) {
+      if (exists)
+        Files.move(retired, target, StandardCopyOption.ATOMIC_MOVE)
+      throw x
+    }
+    if (Files.isSymbolicLink(retired)) {
+      deleteRelease(dir, retired.resolveSibling(Files.readSymbolicLink(retired)))
+      Files.delete(retired)
+    } else
+      retired.toFile().deleteDir()
+  }
+
+  /**
+   * The name prefix of the release directories of the target directory.
+   */
+  static String getReleasePrefix(File dir) {
+    ".${dir.name}.release-".toString()
+  }
+
+  /**
+   * Points the link at the release, replacing any link that is there, by
+   * renaming a new link over it.
+   *
+   * @return False if the file system does not support symbolic links
+   */
+  static boolean swapLink(Path link, Path release) {
+    Path swap = link.resolveSibling(".${link.fileName}.swap")
+    Files.deleteIfExists(swap)
+    try {
+      Files.createSymbolicLink(swap, release.fileName)
+    } catch (IOException | UnsupportedOperationException ignored) {
+      return false
+    }
+    Files.move(swap, link, StandardCopyOption.ATOMIC_MOVE)
+    true
+  }
+
+  /**
+   * Deletes a previous release of the target directory, but nothing else.
+   */
+  static void deleteRelease(File dir, Path release) {
+    if (release.fileName.toString().startsWith(getReleasePrefix(dir)) && Files.isDirectory(release))
+      release.toFile().deleteDir()
+  }
+
+  /**
+   * Extracts the archive entries that are not already current.
+   *
+   * @param archive The archive to deploy
+   * @param previous The manifest of the current deployment
+   * @param currentDir The current deployment
+   * @param targetDir The directory to deploy into, which may be the current deployment
+   * @return The manifest of the new deployment
+   */
+  DeploymentManifest deploy(File archive, DeploymentManifest previous, File currentDir, File targetDir) {
+    DeploymentManifest next = new DeploymentManifest()
+    int written = 0
+    int skipped = 0
+    Path root = targetDir.toPath().toAbsolutePath().normalize()
+    ZipFile zip = new ZipFile(archive)
+    try {
+      zip.entries.each { ZipEntry entry ->
+        File targetFile = new File(targetDir, entry.name)
+        // Compared by path elements, so a sibling with the same prefix is outside:
+        if (!targetFile.toPath().toAbsolutePath().normalize().startsWith(root))
+          throw new GradleException("Archive entry outside the deployment: ${entry.name}")
+        if (entry.isDirectory()) {
+          targetFile.mkdirs()
+          return
+        }
+        File currentFile = new File(currentDir, entry.name)
+        if (previous.isCurrent(entry.name, entry.crc, entry.size, currentFile)) {
+          if (currentFile != targetFile)
+            link(currentFile, targetFile, CopyStrategy.parse(copyStrategy.getOrNull()))
+          skipped++
+        } else {
+          extract(zip, entry, targetFile)
+          written++
+        }
+        next.records[entry.name] = new DeploymentManifest.Record(
+          entry.crc, entry.size, targetFile.lastModified())
+      }
+    } finally {
+      zip.close()
+    }
+    logger.info("Deployed ${archive} into ${targetDir}: ${written} written, ${skipped} unchanged")
+    next
+  }
+
+  static void extract(ZipFile zip, ZipEntry entry, File targetFile) {
+    targetFile.parentFile.mkdirs()
+    zip.getInputStream(entry).withStream { InputStream stream ->
+      Files.copy(stream, targetFile.toPath(), StandardCopyOption.REPLACE_EXISTING)
+    }
+    // Keep the wrapper scripts executable:
+    if (0 != (entry.unixMode & 0111))
+      targetFile.setExecutable(true, false)
+  }
+
+  /**
+   * Carries files the wrench created in the current deployment over into
+   * the assembled deployment; deployed files are handled by the manifest.
+   */
+  static void carryOver(File currentDir, File assemblyDir, DeploymentManifest previous, CopyStrategy strategy = null) {
+    Path currentPath = currentDir.toPath()
+    currentDir.eachFileRecurse { File file ->
+      if (!file.isFile())
+        return
+      String path = currentPath.relativize(file.toPath()).toString().replace(File.separatorChar, '/' as char)
+      if (DeploymentManifest.FILE_NAME == path || previous.records.containsKey(path))
+        return
+      link(file, new File(assemblyDir, path), strategy)
+    }
+  }
+
+  /**
+   * Hard links the target to the source, or copies the source if the file
+   * system does not support links; or writes the target with the parameter
+   * strategy if there is one.
+   */
+  static void link(File source, File target, CopyStrategy strategy = null) {
+    target.parentFile.mkdirs()
+    if (null != strategy) {
+      strategy.copy(source, target, LOGGER)
+      return
+    }
+    Files.deleteIfExists(target.toPath())
+    try {
+      Files.createLink(target.toPath(), source.toPath())
+    } catch (IOException | UnsupportedOperationException ignored) {
+      Files.copy(source.toPath(), target.toPath(), StandardCopyOption.COPY_ATTRIBUTES)
+    }
+  }
+}
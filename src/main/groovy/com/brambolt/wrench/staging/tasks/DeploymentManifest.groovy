@@ -0,0 +1,97 @@
+package com.brambolt.wrench.staging.tasks
+
+/**
+ * Records the files a deployment wrote into the wrench target directory.
+ *
+ * <p>Each deployed file is recorded with the CRC and size of its archive
+ * entry, and the modification time of the file as written. A later
+ * deployment can then skip every entry whose content is unchanged and whose
+ * file has not been touched since it was written.</p>
+ */
+class DeploymentManifest {
+
+  /**
+   * The manifest file name, in the root of the deployed tree.
+   */
+  static final String FILE_NAME = '.wrench-deployment'
+
+  /**
+   * A single deployed file.
+   */
+  static class Record {
+
+    final long crc
+
+    final long size
+
+    final long lastModified
+
+    Record(long crc, long size, long lastModified) {
+      this.crc = crc
+      this.size = size
+      this.lastModified = lastModified
+    }
+
+    boolean hasContent(long crc, long size) {
+      this.crc == crc && this.size == size
+    }
+
+    boolean isWritten(File file) {
+      file.isFile() && file.length() == size && file.lastModified() == lastModified
+    }
+
+    String format() {
+      "${crc},${size},${lastModified}"
+    }
+
+    static Record parse(String value) {
+      String[] parts = value.split(',')
+      new Record(Long.parseLong(parts[0]), Long.parseLong(parts[1]), Long.parseLong(parts[2]))
+    }
+  }
+
+  final Map<String, Record> records = new TreeMap<>()
+
+  /**
+   * Reads the manifest from the parameter directory.
+   * @param dir The deployed tree
+   * @return The manifest, which is empty if nothing was deployed before
+   */
+  static DeploymentManifest read(File dir) {
+    DeploymentManifest manifest = new DeploymentManifest()
+    File file = new File(dir, FILE_NAME)
+    if (!file.isFile())
+      return manifest
+    Properties properties = new Properties()
+    file.withInputStream { InputStream stream -> properties.load(stream) }
+    properties.stringPropertyNames().each { String path ->
+      manifest.records[path] = Record.parse(properties.getProperty(path))
+    }
+    manifest
+  }
+
+  /**
+   * Writes the manifest into the parameter directory.
+   * @param dir The deployed tree
+   */
+  void write(File dir) {
+    Properties properties = new Properties()
+    records.each { String path, Record record -> properties.setProperty(path, record.format()) }
+    new File(dir, FILE_NAME).withOutputStream { OutputStream stream ->
+      properties.store(stream, null)
+    }
+  }
+
+  /**
+   * Checks whether the file at the path is already deployed with the content.
+   * @param path The path relative to the deployed tree
+   * @param crc The CRC of the content to deploy
+   * @param size The size of the content to deploy
+   * @param file The deployed file
+   * @return True iff the file does not need to be written again
+   */
+  boolean isCurrent(String path, long crc, long size, File file) {
+    Record record = records[path]
+    null != record && record.hasContent(crc, size) && record.isWritten(file)
+  }
+}
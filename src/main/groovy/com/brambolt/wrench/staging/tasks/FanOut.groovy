@@ -0,0 +1,229 @@
+package com.brambolt.wrench.staging.tasks
+
+import com.brambolt.wrench.staging.services.TraceService
+import com.brambolt.wrench.staging.services.WorkerLimitService
+import org.gradle.api.DefaultTask
+import org.gradle.api.GradleException
+import org.gradle.api.file.DirectoryProperty
+import org.gradle.api.file.RegularFileProperty
+import org.gradle.api.provider.ListProperty
+import org.gradle.api.provider.Property
+import org.gradle.api.tasks.Input
+import org.gradle.api.tasks.Internal
+import org.gradle.api.tasks.TaskAction
+import org.gradle.workers.WorkQueue
+import org.gradle.workers.WorkerExecutionException
+import org.gradle.workers.WorkerExecutor
+
+import javax.inject.Inject
+import java.nio.charset.StandardCharsets
+
+/**
+ * Runs the staged wrench build of every target on its host, many hosts at a
+ * time.
+ *
+ * <p>The hosts are taken in waves of <code>waveSize</code>, and every host
+ * of a wave is submitted at once. The worker limit bounds how many hosts
+ * run at a time across the build, the next host starting as soon as any
+ * running one completes. When a wave completes with <code>maxFailures</code>
+ * or more failed hosts in total, the remaining waves are skipped. A host
+ * that records no result counts as failed. A summary of every host is
+ * logged and written to the summary file, and the task fails if any host
+ * failed.</p>
+ *
+ * <p>A host is a directory: the staged build of the target is synchronized
+ * into it and run there. Local directories stand in for the hosts, until the
+ * staged builds are shipped to real ones.</p>
+ */
+class FanOut extends DefaultTask {
+
+  /**
+   * The outcome on a single host.
+   */
+  static class Result {
+
+    static final String SKIPPED = 'skipped'
+
+    final String hostName
+
+    final int exitValue
+
+    final long millis
+
+    final String message
+
+    Result(String hostName, int exitValue, long millis, String message) {
+      this.hostName = hostName
+      this.exitValue = exitValue
+      this.millis = millis
+      this.message = message
+    }
+
+    boolean isSuccess() {
+      0 == exitValue && null == message
+    }
+
+    String getStatus() {
+      isSuccess() ? 'ok' : (SKIPPED == message ? SKIPPED : 'failed')
+    }
+
+    void write(File file) {
+      Properties properties = new Properties()
+      properties.setProperty('hostName', hostName)
+      properties.setProperty('exitValue', Integer.toString(exitValue))
+      properties.setProperty('millis', Long.toString(millis))
+      if (null != message)
+        properties.setProperty('message', message)
+      file.withWriter(StandardCharsets.UTF_8.name()) { Writer writer -> properties.store(writer, null) }
+    }
+
+    static Result read(File file) {
+      Properties properties = new Properties()
+      file.withReader(StandardCharsets.UTF_8.name()) { Reader reader -> properties.load(reader) }
+      new Result(
+        properties.getProperty('hostName'),
+        Integer.parseInt(properties.getProperty('exitValue')),
+        Long.parseLong(properties.getProperty('millis')),
+        properties.getProperty('message'))
+    }
+  }
+
+  /**
+   * The staging directory of each host, by host name.
+   */
+  @Internal
+  final Map<String, File> stagingDirs = new LinkedHashMap<>()
+
+  /**
+   * The directory holding a directory per host.
+   */
+  @Internal
+  final DirectoryProperty hostsDir = project.objects.directoryProperty()
+
+  /**
+   * The staged Gradle wrapper, relative to the staging directory.
+   */
+  @Input
+  final Property<String> executable = project.objects.property(String)
+
+  /**
+   * The staged build tasks to run on every host.
+   */
+  @Input
+  final ListProperty<String> taskNames = project.objects.listProperty(String)
+
+  /**
+   * The command line arguments for the staged build, apart from the tasks.
+   */
+  @Input
+  final ListProperty<String> arguments = project.objects.listProperty(String)
+
+  /**
+   * The service bounding the hosts run at the same time, if any.
+   */
+  @Internal
+  final Property<WorkerLimitService> workerLimit = project.objects.property(WorkerLimitService)
+
+  /**
+   * The number of hosts per wave.
+   */
+  @Internal
+  final Property<Integer> waveSize = project.objects.property(Integer)
+
+  /**
+   * The number of failed hosts that stops further waves.
+   */
+  @Internal
+  final Property<Integer> maxFailures = project.objects.property(Integer)
+
+  /**
+   * The summary of the last run.
+   */
+  @Internal
+  final RegularFileProperty summaryFile = project.objects.fileProperty()
+
+  /**
+   * The trace service, if the build is traced.
+   */
+  @Internal
+  final Property<TraceService> traceService = project.objects.property(TraceService)
+
+  private final WorkerExecutor workerExecutor
+
+  @Inject
+  FanOut(WorkerExecutor workerExecutor) {
+    this.workerExecutor = workerExecutor
+  }
+
+  FanOut host(String hostName, File stagingDir) {
+    stagingDirs.put(hostName, stagingDir)
+    this
+  }
+
+  @TaskAction
+  void apply() {
+    List<String> hostNames = new ArrayList<>(stagingDirs.keySet())
+    int size = Math.max(1, waveSize.getOrElse(Math.max(1, hostNames.size())))
+    int threshold = Math.max(1, maxFailures.getOrElse(Integer.MAX_VALUE))
+    File resultsDir = new File(temporaryDir, 'results')
+    resultsDir.deleteDir()
+    resultsDir.mkdirs()
+    Map<String, Result> results = new LinkedHashMap<>()
+    WorkQueue queue = workerExecutor.noIsolation()
+    int failures = 0
+    hostNames.collate(size).each { List<String> wave ->
+      if (failures >= threshold) {
+        wave.each { results.put(it, new Result(it, -1, 0, Result.SKIPPED)) }
+        return
+      }
+      logger.lifecycle("Running ${taskNames.get().join(' ')} on ${wave.join(', ')}")
+      wave.each { String hostName ->
+        queue.submit(FanOutAction) { FanOutParameters parameters ->
+          parameters.hostName.set(hostName)
+          parameters.stagingDir.set(stagingDirs.get(hostName))
+          parameters.hostDir.set(hostsDir.dir(hostName))
+          parameters.executable.set(executable)
+          parameters.taskNames.set(taskNames)
+          parameters.arguments.set(arguments)
+          parameters.resultFile.set(new File(resultsDir, "${hostName}.properties"))
+          parameters.traceService.set(traceService)
+          parameters.workerLimit.set(workerLimit)
+        }
+      }
+      try {
+        queue.await()
+      } catch (WorkerExecutionException x) {
+        // The hosts without a result are counted as failed below:
+        logger.error("Unable to record the result of every host in ${wave.join(', ')}", x)
+      }
+      wave.each { String hostName ->
+        File resultFile = new File(resultsDir, "${hostName}.properties")
+        Result result = resultFile.isFile()
+          ? Result.read(resultFile) : new Result(hostName, -1, 0, 'No result recorded')
+        results.put(hostName, result)
+        if (!result.success)
+          ++failures
+      }
+    }
+    summarize(results)
+    if (0 < failures)
+      throw new GradleException("Failed on ${failures} of ${hostNames.size()} hosts, see ${summaryFile.get().asFile}")
+  }
+
+  void summarize(Map<String, Result> results) {
+    int width = Math.max(4, results.keySet().collect { it.length() }.max() ?: 0)
+    List<String> lines = [String.format("%-${width}s  %-7s  %5s  %9s  %s", 'host', 'status', 'exit', 'millis', 'message')]
+    results.values().each { Result result ->
+      lines.add(String.format("%-${width}s  %-7s  %5d  %9d  %s",
+        result.hostName, result.status, result.exitValue, result.millis, result.message ?: ''))
+    }
+    Map<String, List<Result>> byStatus = results.values().groupBy { it.status }
+    lines.add("${results.size()} hosts: " + ['ok', 'failed', Result.SKIPPED].collect {
+      "${byStatus.get(it)?.size() ?: 0} ${it}"
+    }.join(', '))
+    File file = summaryFile.get().asFile
+    file.parentFile.mkdirs()
+    file.setText(lines.join('\n') + '\n', StandardCharsets.UTF_8.name())
+    lines.each { logger.lifecycle(it) }
+  }
+}
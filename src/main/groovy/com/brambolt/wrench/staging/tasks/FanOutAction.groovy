@@ -0,0 +1,167 @@
+package com.brambolt.wrench.staging.tasks
+
+import com.brambolt.wrench.staging.services.TraceService
+import com.brambolt.wrench.staging.services.WorkerLimitService
+import org.gradle.api.logging.Logger
+import org.gradle.api.logging.Logging
+import org.gradle.process.ExecOperations
+import org.gradle.process.ExecResult
+import org.gradle.process.ExecSpec
+import org.gradle.workers.WorkAction
+
+import javax.inject.Inject
+import java.nio.file.FileVisitResult
+import java.nio.file.Files
+import java.nio.file.LinkOption
+import java.nio.file.Path
+import java.nio.file.SimpleFileVisitor
+import java.nio.file.StandardCopyOption
+import java.nio.file.attribute.BasicFileAttributes
+
+/**
+ * Deploys the staged build of a single target to its host directory and
+ * runs it there.
+ *
+ * <p>The outcome is written to the result file rather than thrown, so that
+ * the fan-out task can count the failures of a wave and summarize the
+ * whole fleet.</p>
+ */
+abstract class FanOutAction implements WorkAction<FanOutParameters> {
+
+  private static final Logger LOGGER = Logging.getLogger(FanOutAction)
+
+  @Inject
+  abstract ExecOperations getExecOperations()
+
+  @Override
+  void execute() {
+    FanOutParameters parameters = getParameters()
+    WorkerLimitService.withPermit(parameters.workerLimit) {
+      FanOut.Result result = TraceService.trace(parameters.traceService, 'host', parameters.hostName.get()) {
+        runOnHost(parameters)
+      }
+      result.write(parameters.resultFile.get().asFile)
+    }
+  }
+
+  FanOut.Result runOnHost(FanOutParameters parameters) {
+    long start = System.currentTimeMillis()
+    FanOut.Result result
+    try {
+      File hostDir = parameters.hostDir.get().asFile
+      deploy(parameters.stagingDir.get().asFile, hostDir)
+      List<String> commandLine = [new File(hostDir, parameters.executable.get()).absolutePath]
+      commandLine.addAll(parameters.taskNames.get())
+      commandLine.addAll(parameters.arguments.get())
+      ExecResult exec = execOperations.exec { ExecSpec spec ->
+        spec.commandLine(commandLine)
+        spec.workingDir(hostDir)
+        spec.ignoreExitValue = true
+      }
+      result = new FanOut.Result(
+        parameters.hostName.get(), exec.exitValue, System.currentTimeMillis() - start, null)
+    } catch (Exception x) {
+      LOGGER.error("Unable to run on ${parameters.hostName.get()}", x)
+      result = new FanOut.Result(
+        parameters.hostName.get(), -1, System.currentTimeMillis() - start, x.message)
+    }
+    result
+  }
+
+  /**
+   * The directories the staged build writes to when it runs. They are not
+   * deployed from the staging directory, and are kept on the host.
+   */
+  static final List<String> EXCLUDED_NAMES = ['.gradle', 'build']
+
+  /**
+   * Synchronizes the host directory with the staged build: changed files are
+   * copied, and files and directories that are no longer staged are deleted,
+   * so nothing deployed before is left behind.
+   */
+  static void deploy(File stagingDir, File hostDir) {
+    Path source = stagingDir.toPath()
+    Path destination = hostDir.toPath()
+    Files.createDirectories(destination)
+    Set<String> staged = new HashSet<>()
+    int copied = 0
+    visit(source) { Path path, String relativePath ->
+      staged.add(relativePath)
+      Path target = destination.resolve(relativePath)
+      if (Files.isDirectory(path)) {
+        if (!Files.isDirectory(target, LinkOption.NOFOLLOW_LINKS)) {
+          delete(target)
+          Files.createDirectories(target)
+        }
+      } else if (!isSame(path, target)) {
+        if (Files.isDirectory(target, LinkOption.NOFOLLOW_LINKS))
+          delete(target)
+        Files.copy(path, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES)
+        ++copied
+      }
+      true
+    }
+    List<Path> stale = []
+    visit(destination) { Path path, String relativePath ->
+      if (staged.contains(relativePath))
+        return true
+      stale.add(path)
+      false
+    }
+    stale.each { Path path -> delete(path) }
+    LOGGER.info("Deployed ${stagingDir} to ${hostDir}, ${copied} files copied and ${stale.size()} removed")
+  }
+
+  /**
+   * Visits the files and directories below the parameter root, apart from
+   * the excluded directories at the top, with their relative paths. The
+   * visitor returns false to skip the contents of a directory.
+   */
+  static void visit(Path root, Closure<Boolean> visitor) {
+    Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+      @Override
+      FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attributes) {
+        if (root == dir)
+          return FileVisitResult.CONTINUE
+        if (root == dir.parent && EXCLUDED_NAMES.contains(dir.fileName.toString()))
+          return FileVisitResult.SKIP_SUBTREE
+        visitor.call(dir, getRelativePath(root, dir)) ? FileVisitResult.CONTINUE : FileVisitResult.SKIP_SUBTREE
+      }
+
+      @Override
+      FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+        visitor.call(file, getRelativePath(root, file))
+        FileVisitResult.CONTINUE
+      }
+    })
+  }
+
+  static String getRelativePath(Path root, Path path) {
+    root.relativize(path).toString().replace(File.separatorChar, '/' as char)
+  }
+
+  /**
+   * Checks whether the deployed file is the staged one, by size and
+   * modification time; the modification time is copied with the file.
+   */
+  static boolean isSame(Path source, Path target) {
+    (Files.isRegularFile(target, LinkOption.NOFOLLOW_LINKS)
+      && Files.size(source) == Files.size(target)
+      && Files.getLastModifiedTime(source) == Files.getLastModifiedTime(target))
+  }
+
+  /**
+   * Deletes a file, or a directory with its contents, if it exists.
+   */
+  static void delete(Path path) {
+    if (!Files.exists(path, LinkOption.NOFOLLOW_LINKS))
+      return
+    if (!Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+      Files.delete(path)
+      return
+    }
+    Files.walk(path).withCloseable { stream ->
+      stream.sorted(Comparator.reverseOrder()).forEach { Path each -> Files.delete(each) }
+    }
+  }
+}
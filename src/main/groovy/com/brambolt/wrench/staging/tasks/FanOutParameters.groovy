@@ -0,0 +1,33 @@
+package com.brambolt.wrench.staging.tasks
+
+import com.brambolt.wrench.staging.services.TraceService
+import com.brambolt.wrench.staging.services.WorkerLimitService
+import org.gradle.api.file.DirectoryProperty
+import org.gradle.api.file.RegularFileProperty
+import org.gradle.api.provider.ListProperty
+import org.gradle.api.provider.Property
+import org.gradle.workers.WorkParameters
+
+/**
+ * The parameters for running a staged build on a single host in a worker.
+ */
+interface FanOutParameters extends WorkParameters {
+
+  Property<String> getHostName()
+
+  DirectoryProperty getStagingDir()
+
+  DirectoryProperty getHostDir()
+
+  Property<String> getExecutable()
+
+  ListProperty<String> getTaskNames()
+
+  ListProperty<String> getArguments()
+
+  RegularFileProperty getResultFile()
+
+  Property<TraceService> getTraceService()
+
+  Property<WorkerLimitService> getWorkerLimit()
+}
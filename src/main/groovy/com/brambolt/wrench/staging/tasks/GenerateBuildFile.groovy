@@ -0,0 +1,85 @@
+package com.brambolt.wrench.staging.tasks
+
+import com.brambolt.wrench.template.Template
+import com.brambolt.wrench.template.Templates
+import org.gradle.api.DefaultTask
+import org.gradle.api.GradleException
+import org.gradle.api.file.RegularFileProperty
+import org.gradle.api.provider.MapProperty
+import org.gradle.api.provider.Property
+import org.gradle.api.tasks.CacheableTask
+import org.gradle.api.tasks.Input
+import org.gradle.api.tasks.OutputFile
+import org.gradle.api.tasks.TaskAction
+
+/**
+ * Instantiates the build file template that executes the wrench in the
+ * staged build.
+ *
+ * <p>The template is read from the class path and the bindings replace the
+ * <code>@name@</code> tokens in the template. The task is up to date as long
+ * as the template, the bindings and the output file are unchanged.</p>
+ *
+ * <p>The parsed template is shared by all targets, see {@link Templates}.</p>
+ */
+@CacheableTask
+class GenerateBuildFile extends DefaultTask {
+
+  /**
+   * The name of the staged build file.
+   */
+  static final String DEFAULT_FILE_NAME = 'build.gradle'
+
+  /**
+   * The class path location of the build file template.
+   */
+  @Input
+  final Property<String> resourcePath = project.objects.property(String)
+
+  /**
+   * The version of the template; the staging plugin version by default.
+   */
+  @Input
+  final Property<String> templateVersion = project.objects.property(String)
+
+  /**
+   * The digest of the template content, so an edited template is not a
+   * cache hit while the version stays the same.
+   */
+  @Input
+  final Property<String> templateDigest = project.objects.property(String)
+
+  /**
+   * The token values to substitute into the template.
+   */
+  @Input
+  final MapProperty<String, String> bindings = project.objects.mapProperty(String, String)
+
+  /**
+   * The build file to write.
+   */
+  @OutputFile
+  final RegularFileProperty outputFile = project.objects.fileProperty()
+
+  @TaskAction
+  void apply() {
+    File destinationFile = write(resourcePath.get(), bindings.get(), outputFile.get().asFile)
+    logger.info("Copied ${resourcePath.get()} from class path to file system at ${destinationFile}")
+  }
+
+  /**
+   * Instantiates the template at the resource path into the destination file.
+   * @param resourcePath The class path location of the template
+   * @param bindings The token values to substitute into the template
+   * @param destinationFile The file to write
+   * @return The written file
+   * @throws GradleException If the file could not be written
+   */
+  static File write(String resourcePath, Map<String, String> bindings, File destinationFile) {
+    try {
+      Templates.fromResource(resourcePath, Template.Syntax.TOKEN).write(bindings, destinationFile)
+    } catch (IllegalArgumentException | UncheckedIOException x) {
+      throw new GradleException("Unable to write ${resourcePath} to ${destinationFile}", x)
+    }
+  }
+}
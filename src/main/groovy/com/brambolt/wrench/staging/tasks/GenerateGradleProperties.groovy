@@ -0,0 +1,81 @@
+package com.brambolt.wrench.staging.tasks
+
+import org.gradle.api.DefaultTask
+import org.gradle.api.file.RegularFileProperty
+import org.gradle.api.provider.MapProperty
+import org.gradle.api.tasks.CacheableTask
+import org.gradle.api.tasks.Input
+import org.gradle.api.tasks.InputFile
+import org.gradle.api.tasks.OutputFile
+import org.gradle.api.tasks.PathSensitive
+import org.gradle.api.tasks.PathSensitivity
+import org.gradle.api.tasks.TaskAction
+
+/**
+ * Writes the <code>gradle.properties</code> file for the staged build.
+ *
+ * <p>The source properties file is copied verbatim, and each of the default
+ * properties is appended unless the source file already assigns it.</p>
+ */
+@CacheableTask
+class GenerateGradleProperties extends DefaultTask {
+
+  /**
+   * The name of the staged properties file.
+   */
+  static final String DEFAULT_FILE_NAME = 'gradle.properties'
+
+  /**
+   * The properties file to start from, usually the root project's.
+   */
+  @InputFile
+  @PathSensitive(PathSensitivity.NONE)
+  final RegularFileProperty sourceFile = project.objects.fileProperty()
+
+  /**
+   * The properties to add when the source file does not assign them.
+   */
+  @Input
+  final MapProperty<String, String> defaults = project.objects.mapProperty(String, String)
+
+  /**
+   * The properties file to write.
+   */
+  @OutputFile
+  final RegularFileProperty outputFile = project.objects.fileProperty()
+
+  @TaskAction
+  void apply() {
+    write(sourceFile.get().asFile, defaults.get(), outputFile.get().asFile)
+  }
+
+  /**
+   * Writes the source properties merged with the defaults to the destination.
+   * @param sourceFile The properties file to start from
+   * @param defaults The properties to append when missing, in order
+   * @param destinationFile The properties file to write
+   */
+  static void write(File sourceFile, Map<String, String> defaults, File destinationFile) {
+    if (!destinationFile.parentFile.exists())
+      destinationFile.parentFile.mkdirs()
+    destinationFile.text = merge(sourceFile.text, defaults)
+  }
+
+  /**
+   * Appends the defaults that the content does not already assign.
+   * @param content The source properties file content
+   * @param defaults The properties to append when missing, in order
+   * @return The merged properties file content
+   */
+  static String merge(String content, Map<String, String> defaults) {
+    StringBuilder merged = new StringBuilder(content)
+    if (!content.endsWith('\n'))
+      merged.append('\n')
+    merged.append('\n')
+    defaults.each { String name, String value ->
+      if (!content.contains("${name}="))
+        merged.append(name).append('=').append(value).append('\n')
+    }
+    merged.toString()
+  }
+}
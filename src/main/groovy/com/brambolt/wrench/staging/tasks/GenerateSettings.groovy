@@ -0,0 +1,49 @@
+package com.brambolt.wrench.staging.tasks
+
+import org.gradle.api.DefaultTask
+import org.gradle.api.file.RegularFileProperty
+import org.gradle.api.provider.Property
+import org.gradle.api.tasks.CacheableTask
+import org.gradle.api.tasks.Input
+import org.gradle.api.tasks.OutputFile
+import org.gradle.api.tasks.TaskAction
+
+/**
+ * Writes the <code>settings.gradle</code> file for the staged build.
+ */
+@CacheableTask
+class GenerateSettings extends DefaultTask {
+
+  /**
+   * The name of the staged settings file.
+   */
+  static final String DEFAULT_FILE_NAME = 'settings.gradle'
+
+  /**
+   * The root project name of the staged build.
+   */
+  @Input
+  final Property<String> rootProjectName = project.objects.property(String)
+
+  /**
+   * The settings file to write.
+   */
+  @OutputFile
+  final RegularFileProperty outputFile = project.objects.fileProperty()
+
+  @TaskAction
+  void apply() {
+    write(rootProjectName.get(), outputFile.get().asFile)
+  }
+
+  /**
+   * Writes a settings file that only names the root project.
+   * @param rootProjectName The root project name
+   * @param destinationFile The settings file to write
+   */
+  static void write(String rootProjectName, File destinationFile) {
+    if (!destinationFile.parentFile.exists())
+      destinationFile.parentFile.mkdirs()
+    destinationFile.text = "rootProject.name = '${rootProjectName}'"
+  }
+}
@@ -0,0 +1,53 @@
+package com.brambolt.wrench.staging.tasks
+
+import org.gradle.api.logging.LogLevel
+import org.gradle.api.logging.Logger
+
+import java.nio.charset.StandardCharsets
+
+/**
+ * Writes the output of a delegated build to a logger, a line at a time, so
+ * it goes through Gradle's logging and console like the output of the
+ * tasks themselves.
+ */
+class LogOutputStream extends OutputStream {
+
+  private static final int NEWLINE = 10
+
+  private static final int RETURN = 13
+
+  private final Logger logger
+
+  private final LogLevel level
+
+  private final ByteArrayOutputStream line = new ByteArrayOutputStream()
+
+  LogOutputStream(Logger logger, LogLevel level) {
+    this.logger = logger
+    this.level = level
+  }
+
+  @Override
+  synchronized void write(int b) {
+    if (NEWLINE == b)
+      flushLine()
+    else if (RETURN != b)
+      line.write(b)
+  }
+
+  @Override
+  synchronized void flush() {
+    // Partial lines are logged when complete, or on close
+  }
+
+  @Override
+  synchronized void close() {
+    if (0 < line.size())
+      flushLine()
+  }
+
+  private void flushLine() {
+    logger.log(level, new String(line.toByteArray(), StandardCharsets.UTF_8))
+    line.reset()
+  }
+}
@@ -0,0 +1,136 @@
+package com.brambolt.wrench.staging.tasks
+
+import com.brambolt.wrench.staging.BlobStore
+import com.brambolt.wrench.staging.CopyStrategy
+import org.gradle.api.DefaultTask
+import org.gradle.api.file.DirectoryProperty
+import org.gradle.api.file.FileTree
+import org.gradle.api.logging.Logger
+import org.gradle.api.provider.ListProperty
+import org.gradle.api.provider.Property
+import org.gradle.api.tasks.CacheableTask
+import org.gradle.api.tasks.Input
+import org.gradle.api.tasks.InputFiles
+import org.gradle.api.tasks.Internal
+import org.gradle.api.tasks.OutputFiles
+import org.gradle.api.tasks.PathSensitive
+import org.gradle.api.tasks.PathSensitivity
+import org.gradle.api.tasks.TaskAction
+import org.gradle.api.tasks.util.PatternFilterable
+
+import java.nio.file.Files
+import java.nio.file.StandardCopyOption
+
+/**
+ * Copies individual files into the staging directory.
+ *
+ * <p>Unlike a <code>Copy</code> task, which owns its entire destination
+ * directory, this task only declares the files it writes as outputs. Several
+ * tasks can then stage files into the same directory and still be loaded
+ * from the build cache.</p>
+ *
+ * <p>Source files are tracked by path relative to the source directory,
+ * so the cache key does not depend on where the project is checked out.</p>
+ */
+@CacheableTask
+class StageFiles extends DefaultTask {
+
+  /**
+   * The directory the paths are relative to.
+   */
+  @Internal
+  final DirectoryProperty sourceDir = project.objects.directoryProperty()
+
+  /**
+   * The relative paths of the files to stage. Paths that do not exist in
+   * the source directory are skipped.
+   */
+  @Input
+  final ListProperty<String> paths = project.objects.listProperty(String)
+
+  /**
+   * The directory to stage the files into.
+   */
+  @Internal
+  final DirectoryProperty destinationDir = project.objects.directoryProperty()
+
+  /**
+   * The blob store to stage the files through, if any.
+   * @see BlobStore
+   */
+  @Internal
+  final DirectoryProperty blobStoreDir = project.objects.directoryProperty()
+
+  /**
+   * How to write the staged files, <code>reflink</code>, <code>link</code> or
+   * <code>transfer</code>. Unset means a plain copy, or a link from the blob
+   * store if there is one.
+   * @see CopyStrategy
+   */
+  @Internal
+  final Property<String> copyStrategy = project.objects.property(String)
+
+  @InputFiles
+  @PathSensitive(PathSensitivity.RELATIVE)
+  FileTree getSourceFiles() {
+    sourceDir.get().asFileTree.matching { PatternFilterable pattern ->
+      pattern.include(paths.get())
+    }
+  }
+
+  @OutputFiles
+  Map<String, File> getDestinationFiles() {
+    paths.get().collectEntries { String path ->
+      [(path): destinationDir.file(path).get().asFile]
+    }
+  }
+
+  @TaskAction
+  void apply() {
+    stage(sourceDir.get().asFile, paths.get(), destinationDir.get().asFile, logger,
+      blobStoreDir.isPresent() ? new BlobStore(blobStoreDir.get().asFile) : null,
+      CopyStrategy.parse(copyStrategy.getOrNull()))
+  }
+
+  /**
+   * Copies the files at the relative paths from the source directory to the
+   * same relative paths under the destination directory.
+   *
+   * @param sourceDir The directory the paths are relative to
+   * @param paths The relative paths of the files to stage
+   * @param destinationDir The directory to stage the files into
+   * @param logger The logger to report to
+   * @param blobStore The blob store to link the files from, or null to copy
+   * @param strategy How to write the files, or null for the default
+   */
+  static void stage(File sourceDir, List<String> paths, File destinationDir, Logger logger,
+    BlobStore blobStore = null, CopyStrategy strategy = null) {
+    Map<File, File> sourceFiles = new LinkedHashMap<>()
+    paths.each { String path ->
+      File sourceFile = new File(sourceDir, path)
+      if (!sourceFile.exists()) {
+        logger.debug("Skipped ${sourceFile}, not found")
+        return
+      }
+      File destinationFile = new File(destinationDir, path)
+      if (!destinationFile.parentFile.exists())
+        destinationFile.parentFile.mkdirs()
+      sourceFiles.put(destinationFile, sourceFile)
+    }
+    if (null != blobStore) {
+      blobStore.stageAll(sourceFiles, logger, strategy ?: CopyStrategy.LINK)
+      return
+    }
+    // Only stored files are immutable, so project files are never linked:
+    if (null != strategy) {
+      (CopyStrategy.LINK == strategy ? CopyStrategy.TRANSFER : strategy).copyAll(sourceFiles, logger)
+      return
+    }
+    sourceFiles.each { File destinationFile, File sourceFile ->
+      // Copying the attributes keeps the wrapper scripts executable:
+      Files.copy(sourceFile.toPath(), destinationFile.toPath(),
+        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES)
+      logger.debug("Staged ${sourceFile} at ${destinationFile}")
+    }
+  }
+}
@@ -0,0 +1,54 @@
+package com.brambolt.wrench.staging.tasks
+
+import com.brambolt.wrench.staging.BlobStore
+import com.brambolt.wrench.staging.CopyStrategy
+import com.brambolt.wrench.staging.services.TraceService
+import com.brambolt.wrench.staging.services.WorkerLimitService
+import org.gradle.api.logging.Logger
+import org.gradle.api.logging.Logging
+import org.gradle.workers.WorkAction
+
+/**
+ * Stages a single target: the build file, the Gradle wrapper, the runbook,
+ * the properties and the settings.
+ *
+ * <p>This writes the same files as the per-target task chain, using the same
+ * methods, so the output is identical whichever way the target is staged.</p>
+ */
+abstract class StageTargetAction implements WorkAction<StageTargetParameters> {
+
+  private static final Logger LOGGER = Logging.getLogger(StageTargetAction)
+
+  @Override
+  void execute() {
+    StageTargetParameters parameters = getParameters()
+    File stagingDir = parameters.stagingDir.get().asFile
+    WorkerLimitService.withPermit(parameters.workerLimit) {
+      TraceService.trace(parameters.traceService, 'stage', parameters.targetName.get()) {
+        stage(parameters, stagingDir)
+      }
+    }
+  }
+
+  void stage(StageTargetParameters parameters, File stagingDir) {
+    BlobStore blobStore = parameters.blobStoreDir.isPresent()
+      ? new BlobStore(parameters.blobStoreDir.get().asFile, parameters.storedBlobs.get()) : null
+    CopyStrategy strategy = CopyStrategy.parse(parameters.copyStrategy.getOrNull())
+    GenerateBuildFile.write(
+      parameters.resourcePath.get(),
+      parameters.bindings.get(),
+      new File(stagingDir, GenerateBuildFile.DEFAULT_FILE_NAME))
+    StageFiles.stage(
+      parameters.wrapperDir.get().asFile, parameters.wrapperPaths.get(), stagingDir, LOGGER, blobStore, strategy)
+    File runbookFile = parameters.runbookFile.get().asFile
+    StageFiles.stage(runbookFile.parentFile, [runbookFile.name], stagingDir, LOGGER, blobStore, strategy)
+    GenerateGradleProperties.write(
+      parameters.propertiesFile.get().asFile,
+      parameters.propertyDefaults.get(),
+      new File(stagingDir, GenerateGradleProperties.DEFAULT_FILE_NAME))
+    GenerateSettings.write(
+      parameters.rootProjectName.get(),
+      new File(stagingDir, GenerateSettings.DEFAULT_FILE_NAME))
+    LOGGER.info("Staged ${stagingDir}")
+  }
+}
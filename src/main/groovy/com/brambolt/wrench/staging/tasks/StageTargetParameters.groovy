@@ -0,0 +1,46 @@
+package com.brambolt.wrench.staging.tasks
+
+import com.brambolt.wrench.staging.services.TraceService
+import com.brambolt.wrench.staging.services.WorkerLimitService
+import org.gradle.api.file.DirectoryProperty
+import org.gradle.api.file.RegularFileProperty
+import org.gradle.api.provider.ListProperty
+import org.gradle.api.provider.MapProperty
+import org.gradle.api.provider.Property
+import org.gradle.workers.WorkParameters
+
+/**
+ * The parameters for staging a single target in a worker.
+ */
+interface StageTargetParameters extends WorkParameters {
+
+  Property<String> getTargetName()
+
+  DirectoryProperty getStagingDir()
+
+  Property<String> getResourcePath()
+
+  MapProperty<String, String> getBindings()
+
+  DirectoryProperty getWrapperDir()
+
+  ListProperty<String> getWrapperPaths()
+
+  RegularFileProperty getRunbookFile()
+
+  RegularFileProperty getPropertiesFile()
+
+  MapProperty<String, String> getPropertyDefaults()
+
+  Property<String> getRootProjectName()
+
+  DirectoryProperty getBlobStoreDir()
+
+  MapProperty<String, String> getStoredBlobs()
+
+  Property<String> getCopyStrategy()
+
+  Property<TraceService> getTraceService()
+
+  Property<WorkerLimitService> getWorkerLimit()
+}
@@ -0,0 +1,195 @@
+package com.brambolt.wrench.staging.tasks
+
+import com.brambolt.wrench.staging.BlobStore
+import com.brambolt.wrench.staging.services.TraceService
+import com.brambolt.wrench.staging.services.WorkerLimitService
+import org.gradle.api.DefaultTask
+import org.gradle.api.file.DirectoryProperty
+import org.gradle.api.file.FileTree
+import org.gradle.api.file.RegularFileProperty
+import org.gradle.api.provider.ListProperty
+import org.gradle.api.provider.MapProperty
+import org.gradle.api.provider.Property
+import org.gradle.api.tasks.CacheableTask
+import org.gradle.api.tasks.Input
+import org.gradle.api.tasks.InputFile
+import org.gradle.api.tasks.InputFiles
+import org.gradle.api.tasks.Internal
+import org.gradle.api.tasks.Nested
+import org.gradle.api.tasks.PathSensitive
+import org.gradle.api.tasks.PathSensitivity
+import org.gradle.api.tasks.TaskAction
+import org.gradle.api.tasks.util.PatternFilterable
+import org.gradle.workers.WorkQueue
+import org.gradle.workers.WorkerExecutor
+
+import javax.inject.Inject
+
+/**
+ * Stages every target in one task, rendering and writing the targets
+ * concurrently in workers.
+ *
+ * <p>Every target is submitted at once. With a worker limit, at most that
+ * many targets are staged at a time across the build, and the next target
+ * starts as soon as any target in progress is staged; Gradle's own worker
+ * limit also applies. Each target is staged by a {@link StageTargetAction},
+ * which produces the same files as the per-target task chain.</p>
+ */
+@CacheableTask
+class StageTargets extends DefaultTask {
+
+  /**
+   * The targets to stage.
+   */
+  @Nested
+  final List<StagedTarget> targets = []
+
+  /**
+   * The class path location of the build file template.
+   */
+  @Input
+  final Property<String> resourcePath = project.objects.property(String)
+
+  /**
+   * The version of the template; the staging plugin version by default.
+   */
+  @Input
+  final Property<String> templateVersion = project.objects.property(String)
+
+  /**
+   * The digest of the template content, so an edited template is not a
+   * cache hit while the version stays the same.
+   */
+  @Input
+  final Property<String> templateDigest = project.objects.property(String)
+
+  /**
+   * The directory the Gradle wrapper paths are relative to.
+   */
+  @Internal
+  final DirectoryProperty wrapperDir = project.objects.directoryProperty()
+
+  /**
+   * The relative paths of the Gradle wrapper files.
+   */
+  @Input
+  final ListProperty<String> wrapperPaths = project.objects.listProperty(String)
+
+  /**
+   * The runbook to stage.
+   */
+  @InputFile
+  @PathSensitive(PathSensitivity.NAME_ONLY)
+  final RegularFileProperty runbookFile = project.objects.fileProperty()
+
+  /**
+   * The properties file to start from, usually the root project's.
+   */
+  @InputFile
+  @PathSensitive(PathSensitivity.NONE)
+  final RegularFileProperty propertiesFile = project.objects.fileProperty()
+
+  /**
+   * The properties to add when the source file does not assign them.
+   */
+  @Input
+  final MapProperty<String, String> propertyDefaults = project.objects.mapProperty(String, String)
+
+  /**
+   * The root project name of the staged builds.
+   */
+  @Input
+  final Property<String> rootProjectName = project.objects.property(String)
+
+  /**
+   * The blob store to stage the wrapper and runbook through, if any.
+   */
+  @Internal
+  final DirectoryProperty blobStoreDir = project.objects.directoryProperty()
+
+  /**
+   * The service bounding the targets staged at the same time, if any.
+   */
+  @Internal
+  final Property<WorkerLimitService> workerLimit = project.objects.property(WorkerLimitService)
+
+  /**
+   * The trace service, if the build is traced.
+   */
+  @Internal
+  final Property<TraceService> traceService = project.objects.property(TraceService)
+
+  private final WorkerExecutor workerExecutor
+
+  @Inject
+  StageTargets(WorkerExecutor workerExecutor) {
+    this.workerExecutor = workerExecutor
+  }
+
+  @InputFiles
+  @PathSensitive(PathSensitivity.RELATIVE)
+  FileTree getWrapperFiles() {
+    wrapperDir.get().asFileTree.matching { PatternFilterable pattern ->
+      pattern.include(wrapperPaths.get())
+    }
+  }
+
+  /**
+   * Adds a target to stage.
+   * @param name The target name
+   * @param bindings The token values for the build file template
+   * @param stagingDir The staging directory of the target
+   * @param copyStrategy How to write the staged files, or null for the default
+   */
+  void target(String name, Map<String, String> bindings, File stagingDir, String copyStrategy = null) {
+    List<String> paths = []
+    paths.add(GenerateBuildFile.DEFAULT_FILE_NAME)
+    paths.addAll(wrapperPaths.get())
+    paths.add(runbookFile.get().asFile.name)
+    paths.add(GenerateGradleProperties.DEFAULT_FILE_NAME)
+    paths.add(GenerateSettings.DEFAULT_FILE_NAME)
+    targets.add(new StagedTarget(name, bindings, stagingDir, paths, copyStrategy))
+  }
+
+  @TaskAction
+  void apply() {
+    Map<String, String> storedBlobs = storeBlobs()
+    WorkQueue queue = workerExecutor.noIsolation()
+    targets.each { StagedTarget target ->
+      queue.submit(StageTargetAction) { StageTargetParameters parameters ->
+        parameters.targetName.set(target.name)
+        parameters.stagingDir.set(target.stagingDir)
+        parameters.resourcePath.set(resourcePath)
+        parameters.bindings.set(target.bindings)
+        parameters.wrapperDir.set(wrapperDir)
+        parameters.wrapperPaths.set(wrapperPaths)
+        parameters.runbookFile.set(runbookFile)
+        parameters.propertiesFile.set(propertiesFile)
+        parameters.propertyDefaults.set(propertyDefaults)
+        parameters.rootProjectName.set(rootProjectName)
+        parameters.blobStoreDir.set(blobStoreDir)
+        parameters.storedBlobs.set(storedBlobs)
+        parameters.copyStrategy.set(target.copyStrategy)
+        parameters.traceService.set(traceService)
+        parameters.workerLimit.set(workerLimit)
+      }
+    }
+    queue.await()
+  }
+
+  /**
+   * Stores the wrapper files and the runbook once, before the targets are
+   * staged, so the targets link them without reading them again.
+   * @return The stored files, by source file key, or empty without a store
+   */
+  Map<String, String> storeBlobs() {
+    if (!blobStoreDir.isPresent())
+      return [:]
+    BlobStore store = new BlobStore(blobStoreDir.get().asFile)
+    File wrapper = wrapperDir.get().asFile
+    List<File> files = wrapperPaths.get().collect { String path -> new File(wrapper, path) }
+    files.add(runbookFile.get().asFile)
+    files.findAll { File file -> file.isFile() }.each { File file -> store.put(file) }
+    store.stored
+  }
+}
@@ -0,0 +1,56 @@
+package com.brambolt.wrench.staging.tasks
+
+import org.gradle.api.tasks.Input
+import org.gradle.api.tasks.Internal
+import org.gradle.api.tasks.OutputFiles
+
+/**
+ * Describes one target staged by the {@link StageTargets} task.
+ */
+class StagedTarget {
+
+  /**
+   * The target name.
+   */
+  @Input
+  final String name
+
+  /**
+   * The token values to substitute into the build file template.
+   */
+  @Input
+  final Map<String, String> bindings
+
+  /**
+   * The staging directory of the target.
+   */
+  @Internal
+  final File stagingDir
+
+  /**
+   * The paths of the staged files, relative to the staging directory.
+   */
+  @Internal
+  final List<String> paths
+
+  /**
+   * How to write the staged wrapper and runbook files, or null for the
+   * default.
+   */
+  @Internal
+  final String copyStrategy
+
+  StagedTarget(String name, Map<String, String> bindings, File stagingDir, List<String> paths,
+    String copyStrategy = null) {
+    this.name = name
+    this.bindings = bindings.asImmutable()
+    this.stagingDir = stagingDir
+    this.paths = paths.asImmutable()
+    this.copyStrategy = copyStrategy
+  }
+
+  @OutputFiles
+  Map<String, File> getStagedFiles() {
+    paths.collectEntries { String path -> [(path): new File(stagingDir, path)] }
+  }
+}
@@ -0,0 +1,51 @@
+package com.brambolt.wrench.staging.tasks
+
+import org.gradle.api.DefaultTask
+import org.gradle.api.file.DeleteSpec
+import org.gradle.api.file.DirectoryProperty
+import org.gradle.api.file.FileSystemOperations
+import org.gradle.api.tasks.Internal
+import org.gradle.api.tasks.TaskAction
+
+import javax.inject.Inject
+import java.nio.file.Files
+import java.nio.file.Path
+
+/**
+ * Deletes the wrench target directory, and the release directory it links
+ * to after an atomic deployment.
+ */
+class Undeploy extends DefaultTask {
+
+  /**
+   * The directory the wrench was deployed into.
+   */
+  @Internal
+  final DirectoryProperty destinationDir = project.objects.directoryProperty()
+
+  private final FileSystemOperations fileSystemOperations
+
+  @Inject
+  Undeploy(FileSystemOperations fileSystemOperations) {
+    this.fileSystemOperations = fileSystemOperations
+  }
+
+  @TaskAction
+  void apply() {
+    Path dir = destinationDir.get().asFile.toPath()
+    // An atomic deployment is a link to the release directory; the link and
+    // the release resolve to the same canonical file, so they are deleted
+    // separately:
+    if (Files.isSymbolicLink(dir)) {
+      File release = dir.resolveSibling(Files.readSymbolicLink(dir)).toFile()
+      fileSystemOperations.delete { DeleteSpec spec ->
+        spec.delete(release)
+      }
+      Files.delete(dir)
+      return
+    }
+    fileSystemOperations.delete { DeleteSpec spec ->
+      spec.delete(destinationDir)
+    }
+  }
+}
@@ -0,0 +1,185 @@
+package com.brambolt.wrench.template;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A parsed template.
+ *
+ * <p>The template text is split into literal segments and variable
+ * references once, when the template is parsed; rendering then only
+ * concatenates the segments with the context values. A reference to a
+ * variable that is missing from the context, or is null, is rendered
+ * verbatim, as Velocity does.</p>
+ *
+ * <p>Two reference syntaxes are supported: the <code>@name@</code> tokens
+ * used by the staging build file template, and the <code>${name}</code>
+ * references used by the trigger Velocity templates. Nothing else in the
+ * Velocity language is supported, so a <code>${name}</code> template that
+ * uses a directive like <code>#if</code>, a comment, or any other kind of
+ * reference, like <code>$name</code> or <code>$!{name}</code>, is rejected
+ * when it is parsed rather than copied through verbatim.</p>
+ */
+public final class Template {
+
+    public enum Syntax {
+
+        TOKEN("@", "@"),
+
+        REFERENCE("${", "}");
+
+        private final String prefix;
+
+        private final String suffix;
+
+        Syntax(String prefix, String suffix) {
+            this.prefix = prefix;
+            this.suffix = suffix;
+        }
+    }
+
+    /**
+     * Parses the template text.
+     *
+     * @param text The template text
+     * @param syntax The reference syntax used in the text
+     * @return The parsed template
+     * @throws IllegalArgumentException If a <code>${name}</code> template
+     * uses Velocity syntax that is not supported
+     */
+    public static Template parse(String text, Syntax syntax) {
+        if (Syntax.REFERENCE == syntax)
+            checkSupported(text);
+        List<String> literals = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        int start = 0;
+        int from = 0;
+        while (true) {
+            int open = text.indexOf(syntax.prefix, from);
+            if (open < 0)
+                break;
+            int nameStart = open + syntax.prefix.length();
+            int close = text.indexOf(syntax.suffix, nameStart);
+            if (close < 0)
+                break;
+            String name = text.substring(nameStart, close);
+            if (!isName(name)) {
+                // Not a reference, keep looking after the prefix:
+                from = nameStart;
+                continue;
+            }
+            literals.add(text.substring(start, open));
+            names.add(name);
+            start = close + syntax.suffix.length();
+            from = start;
+        }
+        literals.add(text.substring(start));
+        return new Template(syntax, literals.toArray(new String[0]), names.toArray(new String[0]));
+    }
+
+    /**
+     * Rejects the Velocity directives, comments and references other than
+     * <code>${name}</code>, which would otherwise be rendered verbatim.
+     */
+    private static void checkSupported(String text) {
+        int line = 1;
+        for (int i = 0; i < text.length() - 1; i++) {
+            char c = text.charAt(i);
+            char next = text.charAt(i + 1);
+            if ('\n' == c)
+                ++line;
+            else if ('#' == c && (Character.isLetter(next) || '{' == next || '#' == next || '*' == next))
+                throw unsupported("directive or comment", text, i, line);
+            else if ('$' == c && (Character.isJavaIdentifierStart(next) || '!' == next))
+                throw unsupported("reference", text, i, line);
+            else if ('$' == c && '{' == next) {
+                int close = text.indexOf('}', i + 2);
+                if (close < 0 || !isName(text.substring(i + 2, close)))
+                    throw unsupported("reference", text, i, line);
+            }
+        }
+    }
+
+    private static IllegalArgumentException unsupported(String kind, String text, int index, int line) {
+        int end = text.indexOf('\n', index);
+        String excerpt = text.substring(index, end < 0 ? text.length() : end).trim();
+        return new IllegalArgumentException(
+            "Unsupported Velocity " + kind + " at line " + line + ": " + excerpt
+                + "; only ${name} references are supported");
+    }
+
+    private static boolean isName(String name) {
+        if (name.isEmpty() || !Character.isJavaIdentifierStart(name.charAt(0)))
+            return false;
+        for (int i = 1; i < name.length(); i++)
+            if (!Character.isJavaIdentifierPart(name.charAt(i)) && '.' != name.charAt(i))
+                return false;
+        return true;
+    }
+
+    private final Syntax syntax;
+
+    /**
+     * The literal segments; there is always one more literal than names.
+     */
+    private final String[] literals;
+
+    private final String[] names;
+
+    private Template(Syntax syntax, String[] literals, String[] names) {
+        this.syntax = syntax;
+        this.literals = literals;
+        this.names = names;
+    }
+
+    public String render(Map<String, ?> context) {
+        StringBuilder builder = new StringBuilder(estimateLength());
+        for (int i = 0; i < names.length; i++) {
+            builder.append(literals[i]);
+            Object value = context.get(names[i]);
+            if (null != value)
+                builder.append(value);
+            else
+                builder.append(syntax.prefix).append(names[i]).append(syntax.suffix);
+        }
+        return builder.append(literals[names.length]).toString();
+    }
+
+    public void render(Map<String, ?> context, Writer writer) throws IOException {
+        writer.write(render(context));
+    }
+
+    /**
+     * Renders the template into the destination file, creating parent
+     * directories as needed.
+     *
+     * @param context The variable values
+     * @param destinationFile The file to write
+     * @return The written file
+     */
+    public File write(Map<String, ?> context, File destinationFile) {
+        try {
+            File parent = destinationFile.getParentFile();
+            if (null != parent)
+                Files.createDirectories(parent.toPath());
+            Files.write(destinationFile.toPath(), render(context).getBytes(StandardCharsets.UTF_8));
+            return destinationFile;
+        } catch (IOException x) {
+            throw new UncheckedIOException("Unable to write " + destinationFile.getAbsolutePath(), x);
+        }
+    }
+
+    private int estimateLength() {
+        int length = 0;
+        for (String literal: literals)
+            length += literal.length();
+        return length + 32 * names.length;
+    }
+}
@@ -0,0 +1,96 @@
+package com.brambolt.wrench.template;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Parses class path templates once and keeps the parsed forms.
+ *
+ * <p>The cache is held by this class, so it lives as long as the plugin
+ * class loader. Gradle reuses that class loader across builds in the same
+ * daemon, so the templates are normally only read and parsed once per
+ * daemon rather than once per rendering.</p>
+ */
+public final class Templates {
+
+    private static final ConcurrentMap<String, Template> CACHE = new ConcurrentHashMap<>();
+
+    private static final ConcurrentMap<String, String> DIGESTS = new ConcurrentHashMap<>();
+
+    private Templates() {}
+
+    /**
+     * Returns the parsed template at the resource path.
+     *
+     * @param resourcePath The class path location of the template
+     * @param syntax The reference syntax used in the template
+     * @return The parsed template
+     * @throws IllegalArgumentException If there is no template at the path,
+     * or the template uses syntax that is not supported
+     */
+    public static Template fromResource(String resourcePath, Template.Syntax syntax) {
+        return CACHE.computeIfAbsent(syntax.name() + ':' + resourcePath, key -> {
+            String text = readResource(resourcePath);
+            try {
+                return Template.parse(text, syntax);
+            } catch (IllegalArgumentException x) {
+                throw new IllegalArgumentException(resourcePath + ": " + x.getMessage(), x);
+            }
+        });
+    }
+
+    /**
+     * Returns the SHA-256 digest of the template at the resource path, as
+     * hex. Tasks declare the digest as an input, so that an edited template
+     * is never a cache hit, even when the plugin version is unchanged.
+     *
+     * @param resourcePath The class path location of the template
+     * @return The digest of the template content
+     * @throws IllegalArgumentException If there is no template at the path
+     */
+    public static String digest(String resourcePath) {
+        return DIGESTS.computeIfAbsent(resourcePath, key -> {
+            try {
+                MessageDigest digest = MessageDigest.getInstance("SHA-256");
+                byte[] hash = digest.digest(readResource(resourcePath).getBytes(StandardCharsets.UTF_8));
+                StringBuilder hex = new StringBuilder(2 * hash.length);
+                for (byte b: hash)
+                    hex.append(String.format("%02x", b));
+                return hex.toString();
+            } catch (NoSuchAlgorithmException x) {
+                throw new IllegalStateException(x);
+            }
+        });
+    }
+
+    static String readResource(String resourcePath) {
+        ClassLoader classLoader = Templates.class.getClassLoader();
+        try (InputStream stream = classLoader.getResourceAsStream(resourcePath)) {
+            if (null == stream)
+                throw new IllegalArgumentException("No template found at " + resourcePath);
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int count;
+            while (-1 != (count = stream.read(buffer)))
+                bytes.write(buffer, 0, count);
+            return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+        } catch (IOException x) {
+            throw new UncheckedIOException("Unable to read " + resourcePath, x);
+        }
+    }
+
+    /**
+     * Clears the cache; only needed if the class path templates change.
+     */
+    public static void clear() {
+        CACHE.clear();
+        DIGESTS.clear();
+    }
+}
@@ -0,0 +1,215 @@
+package com.brambolt.wrench.trigger;
+
+import org.apache.tools.zip.ZipEntry;
+import org.apache.tools.zip.ZipOutputStream;
+import org.gradle.api.DefaultTask;
+import org.gradle.api.GradleException;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.file.ProjectLayout;
+import org.gradle.api.model.ObjectFactory;
+import org.gradle.api.provider.MapProperty;
+import org.gradle.api.tasks.CacheableTask;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.OutputFile;
+import org.gradle.api.tasks.TaskAction;
+
+import javax.inject.Inject;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * Writes one archive with the triggers of every host of a repository, and
+ * the host index for it.
+ *
+ * Each host trigger archive is a stored entry named after the host, so its
+ * bytes appear unchanged in the aggregated archive at the offset recorded
+ * in the index. Publishing the aggregated archive and index takes two
+ * uploads per repository instead of one per host.
+ */
+@CacheableTask
+public class AggregateTriggers extends DefaultTask {
+
+    /**
+     * The contexts derived from the trigger specifications, see
+     * {@link TriggerSpec}.
+     */
+    private final MapProperty<String, String> sharedContext;
+
+    private final MapProperty<String, Map<String, String>> contexts;
+
+    private final DirectoryProperty distributionsDir;
+
+    private File archiveFile;
+
+    private File indexFile;
+
+    @Inject
+    @SuppressWarnings("unchecked")
+    public AggregateTriggers(ObjectFactory objects, ProjectLayout layout) {
+        sharedContext = objects.mapProperty(String.class, String.class);
+        contexts = objects.mapProperty(String.class, (Class<Map<String, String>>) (Class<?>) Map.class);
+        distributionsDir = objects.directoryProperty();
+        sharedContext.set(new HashMap<>());
+        contexts.set(new TreeMap<>());
+        distributionsDir.set(layout.getBuildDirectory().dir("distributions"));
+    }
+
+    /**
+     * Adds the trigger of a host. The shared variables are read from the
+     * project when the first trigger is added.
+     *
+     * @param triggerSpec The trigger of the host
+     * @return The task
+     */
+    public AggregateTriggers trigger(TriggerSpec triggerSpec) {
+        if (contexts.get().isEmpty())
+            sharedContext.set(TriggersBuildPlugin.toContext(
+                TriggersBuildPlugin.createSharedContext(getProject())));
+        contexts.put(triggerSpec.getHostname(), TriggersBuildPlugin.toContext(
+            TriggersBuildPlugin.createVelocityContext(sharedContext.get(), triggerSpec)));
+        return this;
+    }
+
+    @OutputFile
+    public File getArchiveFile() {
+        return archiveFile;
+    }
+
+    public void setArchiveFile(File archiveFile) {
+        this.archiveFile = archiveFile;
+    }
+
+    @OutputFile
+    public File getIndexFile() {
+        return indexFile;
+    }
+
+    public void setIndexFile(File indexFile) {
+        this.indexFile = indexFile;
+    }
+
+    /**
+     * The variables common to all hosts, read from the project once.
+     */
+    @Internal
+    public MapProperty<String, String> getSharedContext() {
+        return sharedContext;
+    }
+
+    /**
+     * The template variables for each host.
+     */
+    @Input
+    public MapProperty<String, Map<String, String>> getContexts() {
+        return contexts;
+    }
+
+    /**
+     * The directory the archive and index are written to by default.
+     */
+    @Internal
+    public DirectoryProperty getDistributionsDir() {
+        return distributionsDir;
+    }
+
+    public AggregateTriggers configure(RepositorySpec repositorySpec) {
+        File dir = distributionsDir.get().getAsFile();
+        String baseName = repositorySpec.getRepositoryName() + "-triggers";
+        setArchiveFile(new File(dir, baseName + ".zip"));
+        setIndexFile(new File(dir, baseName + "." + TriggerIndex.FILE_EXTENSION));
+        return this;
+    }
+
+    @TaskAction
+    void apply() {
+        File parentDir = getArchiveFile().getParentFile();
+        if (!parentDir.isDirectory() && !parentDir.mkdirs())
+            throw new GradleException("Unable to create " + parentDir.getAbsolutePath());
+        write(getArchiveFile(), contexts.get()).write(getIndexFile());
+    }
+
+    /**
+     * Writes the aggregated archive.
+     *
+     * @param archiveFile The archive to write
+     * @param contexts The template variables by host
+     * @return The host index of the written archive
+     */
+    static TriggerIndex write(File archiveFile, Map<String, Map<String, String>> contexts) {
+        TriggerIndex index = new TriggerIndex();
+        try (CountingOutputStream stream = new CountingOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(archiveFile.toPath())))) {
+            ZipOutputStream zip = new ZipOutputStream(stream);
+            zip.setEncoding(StandardCharsets.UTF_8.name());
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            for (Map.Entry<String, Map<String, String>> context: new TreeMap<>(contexts).entrySet()) {
+                buffer.reset();
+                TriggerArchives.write(buffer, context.getValue());
+                byte[] content = buffer.toByteArray();
+                zip.putNextEntry(createEntry(context.getKey(), content));
+                long offset = stream.getCount();
+                zip.write(content, 0, content.length);
+                zip.closeEntry();
+                String checksum = GenerateTriggers.toHex(GenerateTriggers.createDigest().digest(content));
+                index.put(context.getKey(), new TriggerIndex.Entry(offset, content.length, checksum));
+            }
+            zip.finish();
+        } catch (IOException x) {
+            throw new GradleException("Unable to write " + archiveFile.getAbsolutePath(), x);
+        }
+        return index;
+    }
+
+    /**
+     * Creates a stored entry, so that the local header is written by
+     * <code>putNextEntry</code> and the content follows it unchanged.
+     */
+    static ZipEntry createEntry(String hostname, byte[] content) {
+        CRC32 crc = new CRC32();
+        crc.update(content, 0, content.length);
+        ZipEntry entry = new ZipEntry(hostname + ".zip");
+        entry.setTime(TriggerArchives.CONSTANT_ENTRY_TIME);
+        entry.setUnixMode(TriggerArchives.FILE_MODE);
+        entry.setMethod(ZipEntry.STORED);
+        entry.setSize(content.length);
+        entry.setCompressedSize(content.length);
+        entry.setCrc(crc.getValue());
+        return entry;
+    }
+
+    static class CountingOutputStream extends FilterOutputStream {
+
+        private long count = 0;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        long getCount() {
+            return count;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            ++count;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package com.brambolt.wrench.trigger;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The public instance methods of a triggers DSL class, as method handles
+ * by name and arity, for the calls that reach <code>methodMissing</code>.
+ *
+ * The table is built once per class and kept for the life of the class, so
+ * a DSL call costs a map lookup and a match on the argument count and types
+ * instead of a scan of the declared methods and a reflective invocation.
+ * A <code>GString</code> argument is accepted for a <code>String</code>
+ * parameter, as Groovy itself does.
+ */
+final class DispatchTable {
+
+    private static final ClassValue<DispatchTable> TABLES = new ClassValue<DispatchTable>() {
+        @Override
+        protected DispatchTable computeValue(Class<?> type) {
+            return new DispatchTable(type);
+        }
+    };
+
+    /**
+     * Returns the dispatch table of the parameter class.
+     *
+     * @param type The DSL class
+     * @return The dispatch table, created on first use
+     */
+    static DispatchTable of(Class<?> type) {
+        return TABLES.get(type);
+    }
+
+    private final Class<?> type;
+
+    private final Map<String, Entry[]> entries;
+
+    private DispatchTable(Class<?> type) {
+        this.type = type;
+        Map<String, List<Entry>> byName = new HashMap<>();
+        MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+        for (Method method: type.getMethods()) {
+            if (Object.class.equals(method.getDeclaringClass())
+                || Modifier.isStatic(method.getModifiers())
+                || method.isBridge()
+                || method.isSynthetic())
+                continue;
+            try {
+                byName.computeIfAbsent(method.getName(), name -> new ArrayList<>())
+                    .add(new Entry(method, lookup.unreflect(method)));
+            } catch (IllegalAccessException x) {
+                throw new IllegalStateException("Unable to access " + method, x);
+            }
+        }
+        entries = new HashMap<>(byName.size() * 2);
+        byName.forEach((name, list) -> {
+            Entry[] array = list.toArray(new Entry[0]);
+            // Fewest parameters first, and the same order on every run:
+            Arrays.sort(array, Comparator
+                .comparingInt((Entry entry) -> entry.parameterTypes.length)
+                .thenComparing(entry -> entry.signature));
+            entries.put(name, array);
+        });
+    }
+
+    /**
+     * Checks whether the class has a public method with the parameter name,
+     * with any arguments.
+     *
+     * @param name The method name
+     * @return True iff there is at least one such method
+     */
+    boolean contains(String name) {
+        return entries.containsKey(name);
+    }
+
+    /**
+     * Invokes the method with the parameter name that accepts the parameter
+     * arguments. Exceptions thrown by the method are thrown unchanged.
+     *
+     * @param target The object to invoke the method on
+     * @param name The method name
+     * @param args The arguments
+     * @return The return value of the method, or null for a void method
+     * @throws IllegalArgumentException If no method accepts the arguments
+     */
+    Object invoke(Object target, String name, Object[] args) {
+        Entry[] candidates = entries.get(name);
+        if (null != candidates)
+            for (Entry entry: candidates) {
+                Object[] arguments = entry.accept(args);
+                if (null != arguments)
+                    return entry.invoke(target, arguments);
+            }
+        throw new IllegalArgumentException(String.format(
+            "No method %s.%s accepts the arguments %s",
+            type.getSimpleName(), name, Arrays.toString(args)));
+    }
+
+    private static final class Entry {
+
+        private final String signature;
+
+        private final Class<?>[] parameterTypes;
+
+        private final boolean[] primitive;
+
+        /** The method handle as <code>(Object, Object[])Object</code>. */
+        private final MethodHandle invoker;
+
+        private Entry(Method method, MethodHandle handle) {
+            Class<?>[] declared = method.getParameterTypes();
+            signature = Arrays.toString(declared);
+            parameterTypes = new Class<?>[declared.length];
+            primitive = new boolean[declared.length];
+            for (int i = 0; i < declared.length; ++i) {
+                primitive[i] = declared[i].isPrimitive();
+                parameterTypes[i] = primitive[i] ? box(declared[i]) : declared[i];
+            }
+            invoker = handle
+                .asType(MethodType.genericMethodType(1 + declared.length))
+                .asSpreader(Object[].class, declared.length);
+        }
+
+        /**
+         * Returns the arguments to invoke the method with, converted where
+         * necessary, or null if the method does not accept the arguments.
+         */
+        private Object[] accept(Object[] args) {
+            if (args.length != parameterTypes.length)
+                return null;
+            Object[] arguments = args;
+            for (int i = 0; i < args.length; ++i) {
+                Object arg = args[i];
+                if (null == arg) {
+                    if (primitive[i])
+                        return null;
+                } else if (!parameterTypes[i].isInstance(arg)) {
+                    if (!String.class.equals(parameterTypes[i]) || !(arg instanceof CharSequence))
+                        return null;
+                    if (arguments == args)
+                        arguments = args.clone();
+                    arguments[i] = arg.toString();
+                }
+            }
+            return arguments;
+        }
+
+        private Object invoke(Object target, Object[] arguments) {
+            try {
+                return (Object) invoker.invokeExact(target, arguments);
+            } catch (RuntimeException | Error x) {
+                throw x;
+            } catch (Throwable x) {
+                throw new UndeclaredThrowableException(x);
+            }
+        }
+
+        private static Class<?> box(Class<?> primitiveType) {
+            return MethodType.methodType(primitiveType).wrap().returnType();
+        }
+    }
+}
@@ -1,33 +1,84 @@
 package com.brambolt.wrench.trigger;
 
-import groovy.lang.Closure;
+import com.brambolt.wrench.template.Template;
+import com.brambolt.wrench.template.Templates;
 import org.gradle.api.DefaultTask;
 import org.gradle.api.GradleException;
 import org.gradle.api.logging.Logger;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.OutputDirectory;
 import org.gradle.api.tasks.TaskAction;
-import org.gradle.process.ExecSpec;
 
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermission;
 import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import static com.brambolt.util.Resources.stream;
 
-class GenerateTrigger extends DefaultTask {
+public class GenerateTrigger extends DefaultTask {
 
-    private TriggerSpec triggerSpec;
+    static final String RESOURCE_ROOT = "com/brambolt/wrench/trigger";
 
-    public GenerateTrigger() {}
+    static final List<String> WRAPPER_PATHS = Arrays.asList(
+        "gradlew", "gradlew.bat",
+        "gradle/wrapper/gradle-wrapper.jar",
+        "gradle/wrapper/gradle-wrapper.properties");
 
+    static final List<String> TEMPLATE_PATHS = Arrays.asList(
+        "build.gradle.vtl", "gradle.properties.vtl", "settings.gradle.vtl");
+
+    /**
+     * Not kept as task state, see {@link TriggerSpec}; only the directories
+     * derived from it are.
+     */
+    private transient TriggerSpec triggerSpec;
+
+    private File triggerDir;
+
+    private Map<String, String> context = new HashMap<>();
+
+    @Internal
     public TriggerSpec getTriggerSpec() {
         return triggerSpec;
     }
 
     public void setTriggerSpec(TriggerSpec triggerSpec) {
         this.triggerSpec = triggerSpec;
+        setTriggerDir(triggerSpec.getTriggerDir());
+    }
+
+    @OutputDirectory
+    public File getTriggerDir() {
+        return triggerDir;
+    }
+
+    public void setTriggerDir(File triggerDir) {
+        this.triggerDir = triggerDir;
+    }
+
+    /**
+     * The template variables. Variables with null values are left out, and
+     * their references are rendered verbatim.
+     */
+    @Input
+    public Map<String, String> getContext() {
+        return context;
+    }
+
+    public void setContext(Map<String, ?> context) {
+        this.context = TriggersBuildPlugin.toContext(context);
     }
 
     public GenerateTrigger configure(TriggerSpec triggerSpec) {
@@ -37,41 +88,71 @@ class GenerateTrigger extends DefaultTask {
 
     @TaskAction
     void apply() {
-        apply(getTriggerSpec().getTriggerDir(), getTriggerSpec().getTemplatesDir());
+        apply(getTriggerDir(), getContext());
     }
 
-    void apply(File triggerDir, File templatesDir) {
-        copyGradleWrapper(triggerDir);
-        copyTemplates(templatesDir);
+    void apply(File triggerDir, Map<String, String> context) {
+        generate(triggerDir, context, getLogger());
     }
 
-    void copyGradleWrapper(File destinationDir) {
-        Logger logger = getProject().getLogger();
-        Arrays.asList(
-            "gradlew", "gradlew.bat",
-            "gradle/wrapper/gradle-wrapper.jar",
-            "gradle/wrapper/gradle-wrapper.properties")
-            .forEach(relativePath -> copyTriggerResource(relativePath, destinationDir, logger));
-        getProject().exec(new Closure<Void>(getProject()) {
-            @Override
-            public Void call() {
-                ExecSpec spec = (ExecSpec) getDelegate();
-                spec.commandLine("chmod", "+x", "gradlew");
-                spec.workingDir(destinationDir);
-                return null;
-            }
-        });
+    /**
+     * Generates a trigger directory. This is shared with the batch task, and
+     * so must not depend on any task state.
+     *
+     * @param triggerDir The trigger directory to generate
+     * @param context The template variables
+     * @param logger The logger to use
+     */
+    static void generate(File triggerDir, Map<String, String> context, Logger logger) {
+        copyGradleWrapper(triggerDir, logger);
+        renderTemplates(triggerDir, context, logger);
     }
 
-    void copyTemplates(File destinationDir) {
-        Logger logger = getProject().getLogger();
-        Arrays.asList("build.gradle.vtl", "gradle.properties.vtl", "settings.gradle.vtl")
-            .forEach(relativePath -> copyTriggerResource(relativePath, destinationDir, logger));
+    static void copyGradleWrapper(File destinationDir, Logger logger) {
+        WRAPPER_PATHS.forEach(relativePath -> copyTriggerResource(relativePath, destinationDir, logger));
+        makeExecutable(new File(destinationDir, "gradlew"));
+    }
+
+    static void renderTemplates(File destinationDir, Map<String, String> context, Logger logger) {
+        TEMPLATE_PATHS.forEach(relativePath -> renderTriggerTemplate(relativePath, destinationDir, context, logger));
+    }
+
+    /**
+     * Makes the parameter file executable for everyone, like
+     * <code>chmod +x</code> but without starting a process per trigger.
+     *
+     * @param file The file to make executable
+     */
+    static void makeExecutable(File file) {
+        Path path = file.toPath();
+        try {
+            if (null != Files.getFileAttributeView(path, PosixFileAttributeView.class)) {
+                Set<PosixFilePermission> permissions = EnumSet.noneOf(PosixFilePermission.class);
+                permissions.addAll(Files.getPosixFilePermissions(path));
+                permissions.add(PosixFilePermission.OWNER_EXECUTE);
+                permissions.add(PosixFilePermission.GROUP_EXECUTE);
+                permissions.add(PosixFilePermission.OTHERS_EXECUTE);
+                Files.setPosixFilePermissions(path, permissions);
+            } else if (!file.setExecutable(true, false))
+                throw new IOException("Permission change refused");
+        } catch (IOException x) {
+            throw new GradleException("Unable to make " + file.getAbsolutePath() + " executable", x);
+        }
+    }
+
+    static void renderTriggerTemplate(String relativePath, File triggerDir, Map<String, String> context, Logger logger) {
+        final String resourcePath = RESOURCE_ROOT + "/" + relativePath;
+        File destinationFile = new File(triggerDir, relativePath.substring(0, relativePath.length() - ".vtl".length()));
+        try {
+            Templates.fromResource(resourcePath, Template.Syntax.REFERENCE).write(context, destinationFile);
+            logger.debug("Rendered " + resourcePath + " to " + destinationFile.getAbsolutePath());
+        } catch (RuntimeException x) {
+            throw new GradleException("Unable to render " + resourcePath + " to " + destinationFile.getAbsolutePath(), x);
+        }
     }
 
     static void copyTriggerResource(String relativePath, File triggerDir, Logger logger) {
-        final String resourceRoot = "com/brambolt/wrench/trigger";
-        final String resourcePath = resourceRoot + "/" + relativePath;
+        final String resourcePath = RESOURCE_ROOT + "/" + relativePath;
         File destinationFile = new File(triggerDir.getAbsolutePath() + "/" + relativePath);
         boolean created = destinationFile.getParentFile().mkdirs();
         if (created)
@@ -0,0 +1,317 @@
+package com.brambolt.wrench.trigger;
+
+import com.brambolt.util.Resources;
+import org.gradle.api.DefaultTask;
+import org.gradle.api.GradleException;
+import org.gradle.api.model.ObjectFactory;
+import org.gradle.api.provider.MapProperty;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.OutputDirectories;
+import org.gradle.api.tasks.OutputFiles;
+import org.gradle.api.tasks.TaskAction;
+import org.gradle.workers.WorkQueue;
+import org.gradle.workers.WorkerExecutor;
+
+import javax.inject.Inject;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Generates every trigger directory of the project in a single task.
+ *
+ * The per-trigger tasks each snapshot the project properties and start a
+ * <code>chmod</code> process, which adds up to minutes for a few thousand
+ * hosts. This task computes the shared context once and generates the
+ * triggers in parallel through the worker API, with at most the number of
+ * workers Gradle is configured with.
+ *
+ * With <code>archive</code> set, the task writes the trigger archives
+ * directly instead of the trigger directories.
+ *
+ * The task is incremental per trigger: a stamp of the context and the
+ * trigger resources is kept for each trigger, with a fingerprint of the
+ * output it produced, and only the triggers with a changed stamp, or a
+ * missing or changed output, are generated again. The outputs of triggers
+ * that are no longer defined are deleted.
+ */
+public class GenerateTriggers extends DefaultTask {
+
+    public static final String DEFAULT_TASK_NAME = "generateTriggers";
+
+    private final WorkerExecutor workerExecutor;
+
+    private boolean archive = false;
+
+    /**
+     * The contexts and outputs derived from the trigger specifications, see
+     * {@link TriggerSpec}.
+     */
+    private final MapProperty<String, String> sharedContext;
+
+    private final MapProperty<String, Map<String, String>> contexts;
+
+    private final MapProperty<String, File> triggerDirs;
+
+    private final MapProperty<String, File> archiveFiles;
+
+    @Inject
+    @SuppressWarnings("unchecked")
+    public GenerateTriggers(WorkerExecutor workerExecutor, ObjectFactory objects) {
+        this.workerExecutor = workerExecutor;
+        sharedContext = objects.mapProperty(String.class, String.class);
+        contexts = objects.mapProperty(String.class, (Class<Map<String, String>>) (Class<?>) Map.class);
+        triggerDirs = objects.mapProperty(String.class, File.class);
+        archiveFiles = objects.mapProperty(String.class, File.class);
+        sharedContext.set(new HashMap<>());
+        contexts.set(new TreeMap<>());
+        triggerDirs.set(new TreeMap<>());
+        archiveFiles.set(new TreeMap<>());
+    }
+
+    /**
+     * Adds a trigger. The shared context is read from the project when the
+     * first trigger is added.
+     *
+     * @param triggerSpec The trigger to generate
+     * @return The task
+     */
+    public GenerateTriggers trigger(TriggerSpec triggerSpec) {
+        if (contexts.get().isEmpty())
+            sharedContext.set(TriggersBuildPlugin.toContext(
+                TriggersBuildPlugin.createSharedContext(getProject())));
+        contexts.put(triggerSpec.getName(), TriggersBuildPlugin.toContext(
+            TriggersBuildPlugin.createVelocityContext(sharedContext.get(), triggerSpec)));
+        triggerDirs.put(triggerSpec.getName(), triggerSpec.getTriggerDir());
+        archiveFiles.put(triggerSpec.getName(), triggerSpec.getArchiveFile());
+        return this;
+    }
+
+    @Input
+    public boolean isArchive() {
+        return archive;
+    }
+
+    public void setArchive(boolean archive) {
+        this.archive = archive;
+    }
+
+    /**
+     * The variables common to all triggers, read from the project once.
+     */
+    @Internal
+    public MapProperty<String, String> getSharedContext() {
+        return sharedContext;
+    }
+
+    /**
+     * The template variables for each trigger, by trigger name.
+     */
+    @Input
+    public MapProperty<String, Map<String, String>> getContexts() {
+        return contexts;
+    }
+
+    @OutputDirectories
+    public Map<String, File> getTriggerDirs() {
+        return archive ? new TreeMap<>() : triggerDirs.get();
+    }
+
+    @OutputFiles
+    public Map<String, File> getArchiveFiles() {
+        return archive ? archiveFiles.get() : new TreeMap<>();
+    }
+
+    @TaskAction
+    void apply() {
+        Map<String, File> outputs = archive ? getArchiveFiles() : getTriggerDirs();
+        Map<String, Map<String, String>> values = contexts.get();
+        deleteRemoved(getTemporaryDir(), values.keySet());
+        String resourceDigest = createResourceDigest();
+        WorkQueue queue = workerExecutor.noIsolation();
+        int submitted = 0;
+        for (Map.Entry<String, Map<String, String>> entry: values.entrySet()) {
+            File output = outputs.get(entry.getKey());
+            File stampFile = new File(getTemporaryDir(), entry.getKey() + STAMP_EXTENSION);
+            String stamp = createStamp(resourceDigest, entry.getValue());
+            if (isCurrent(output, stampFile, stamp))
+                continue;
+            queue.submit(GenerateTriggerAction.class, parameters -> {
+                if (archive)
+                    parameters.getArchiveFile().set(output);
+                else parameters.getTriggerDir().set(output);
+                parameters.getContext().set(entry.getValue());
+                parameters.getStampFile().set(stampFile);
+                parameters.getStamp().set(stamp);
+            });
+            ++submitted;
+        }
+        queue.await();
+        getLogger().info("Generated {} of {} triggers", submitted, outputs.size());
+    }
+
+    static final String STAMP_EXTENSION = ".stamp";
+
+    /**
+     * Checks the stamp file of a trigger. The stamp file holds the stamp of
+     * what the trigger was generated from, the output path and a fingerprint
+     * of the output, one per line.
+     */
+    static boolean isCurrent(File output, File stampFile, String stamp) {
+        if (!output.exists() || !stampFile.isFile())
+            return false;
+        try {
+            List<String> lines = Files.readAllLines(stampFile.toPath(), StandardCharsets.UTF_8);
+            return 3 == lines.size()
+                && stamp.equals(lines.get(0))
+                && output.getAbsolutePath().equals(lines.get(1))
+                && createFingerprint(output).equals(lines.get(2));
+        } catch (IOException x) {
+            return false;
+        }
+    }
+
+    /**
+     * Records the stamp of a generated trigger. This is shared with the work
+     * action, and so must not depend on any task state.
+     *
+     * @param stampFile The stamp file to write
+     * @param stamp The stamp of what the trigger was generated from
+     * @param output The generated trigger directory or archive
+     */
+    static void writeStamp(File stampFile, String stamp, File output) {
+        try {
+            Files.write(stampFile.toPath(), Arrays.asList(
+                stamp, output.getAbsolutePath(), createFingerprint(output)), StandardCharsets.UTF_8);
+        } catch (IOException x) {
+            throw new GradleException("Unable to write " + stampFile.getAbsolutePath(), x);
+        }
+    }
+
+    /**
+     * Deletes the outputs and stamps of the triggers that are no longer
+     * defined, found by the stamps they left.
+     */
+    static void deleteRemoved(File stampDir, Set<String> names) {
+        File[] stampFiles = stampDir.listFiles((dir, name) -> name.endsWith(STAMP_EXTENSION));
+        if (null == stampFiles)
+            return;
+        for (File stampFile: stampFiles) {
+            String name = stampFile.getName();
+            if (names.contains(name.substring(0, name.length() - STAMP_EXTENSION.length())))
+                continue;
+            try {
+                List<String> lines = Files.readAllLines(stampFile.toPath(), StandardCharsets.UTF_8);
+                if (1 < lines.size())
+                    delete(new File(lines.get(1)));
+                Files.delete(stampFile.toPath());
+            } catch (IOException x) {
+                throw new GradleException("Unable to delete the trigger of " + stampFile.getAbsolutePath(), x);
+            }
+        }
+    }
+
+    /**
+     * Deletes a trigger directory or archive, if it exists.
+     *
+     * @param output The directory or file to delete
+     * @throws IOException If the output can't be deleted
+     */
+    static void delete(File output) throws IOException {
+        if (!output.exists())
+            return;
+        try (Stream<Path> paths = Files.walk(output.toPath())) {
+            List<Path> sorted = paths.sorted(Comparator.reverseOrder()).collect(Collectors.toList());
+            for (Path path: sorted)
+                Files.delete(path);
+        }
+    }
+
+    /**
+     * Fingerprints a trigger directory or archive by the relative path, size,
+     * modification time and executable bit of every file, so that an edit,
+     * a new file or a deleted file is noticed without reading the content.
+     */
+    static String createFingerprint(File output) throws IOException {
+        MessageDigest digest = createDigest();
+        Path root = output.toPath();
+        try (Stream<Path> paths = Files.walk(root)) {
+            List<Path> sorted = paths.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+            for (Path path: sorted) {
+                File file = path.toFile();
+                digest.update(root.relativize(path).toString().getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) 0);
+                digest.update(String.format("%d:%d:%b",
+                    file.length(), file.lastModified(), file.canExecute()).getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) 0);
+            }
+        }
+        return toHex(digest.digest());
+    }
+
+    static String createStamp(String resourceDigest, Map<String, String> context) {
+        MessageDigest digest = createDigest();
+        digest.update(resourceDigest.getBytes(StandardCharsets.UTF_8));
+        new TreeMap<>(context).forEach((name, value) -> {
+            digest.update(name.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(value.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+        });
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Digests the wrapper and template resources, so that a plug-in upgrade
+     * with changed resources regenerates every trigger.
+     */
+    static String createResourceDigest() {
+        MessageDigest digest = createDigest();
+        List<String> relativePaths = new ArrayList<>(GenerateTrigger.WRAPPER_PATHS);
+        relativePaths.addAll(GenerateTrigger.TEMPLATE_PATHS);
+        byte[] buffer = new byte[8192];
+        for (String relativePath: relativePaths) {
+            String resourcePath = GenerateTrigger.RESOURCE_ROOT + "/" + relativePath;
+            try (InputStream stream = Resources.stream(resourcePath)) {
+                if (null == stream)
+                    throw new GradleException("No resource found at " + resourcePath);
+                for (int count = stream.read(buffer); count >= 0; count = stream.read(buffer))
+                    digest.update(buffer, 0, count);
+            } catch (IOException x) {
+                throw new GradleException("Unable to read " + resourcePath, x);
+            }
+        }
+        return toHex(digest.digest());
+    }
+
+    static MessageDigest createDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException x) {
+            throw new GradleException("No SHA-256 digest available", x);
+        }
+    }
+
+    static String toHex(byte[] bytes) {
+        StringBuilder builder = new StringBuilder(2 * bytes.length);
+        for (byte b: bytes)
+            builder.append(String.format("%02x", b));
+        return builder.toString();
+    }
+}
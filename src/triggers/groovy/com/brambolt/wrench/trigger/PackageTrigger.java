@@ -0,0 +1,55 @@
+package com.brambolt.wrench.trigger;
+
+import org.gradle.api.DefaultTask;
+import org.gradle.api.tasks.CacheableTask;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.OutputFile;
+import org.gradle.api.tasks.TaskAction;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Writes a trigger archive directly from the trigger resources, without
+ * generating the trigger directory and zipping it afterwards.
+ */
+@CacheableTask
+public class PackageTrigger extends DefaultTask {
+
+    private File archiveFile;
+
+    private Map<String, String> context = new HashMap<>();
+
+    @OutputFile
+    public File getArchiveFile() {
+        return archiveFile;
+    }
+
+    public void setArchiveFile(File archiveFile) {
+        this.archiveFile = archiveFile;
+    }
+
+    /**
+     * The template variables. Variables with null values are left out, and
+     * their references are rendered verbatim.
+     */
+    @Input
+    public Map<String, String> getContext() {
+        return context;
+    }
+
+    public void setContext(Map<String, ?> context) {
+        this.context = TriggersBuildPlugin.toContext(context);
+    }
+
+    public PackageTrigger configure(TriggerSpec triggerSpec) {
+        setArchiveFile(triggerSpec.getArchiveFile());
+        return this;
+    }
+
+    @TaskAction
+    void apply() {
+        TriggerArchives.write(getArchiveFile(), getContext());
+    }
+}
@@ -5,7 +5,6 @@ import groovy.util.Proxy;
 import org.gradle.api.GradleException;
 import org.gradle.api.Project;
 
-import java.lang.reflect.Method;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -59,15 +58,13 @@ public class RepositorySpec {
                 return RepositorySpec.this.createAndConfigureHost(name);
             }
             public Object methodMissing(String name, Object args) {
-                Method[] methods = RepositorySpec.this.getClass().getDeclaredMethods();
-                for (Method method: methods) {
-                    if (method.getName().equals(name))
-                        try {
-                            return method.invoke(RepositorySpec.this, (Object[]) args);
-                        } catch (Exception x) {
-                            throw new GradleException("Invalid repository spec: " + name, x);
-                        }
-                }
+                DispatchTable methods = DispatchTable.of(RepositorySpec.this.getClass());
+                if (methods.contains(name))
+                    try {
+                        return methods.invoke(RepositorySpec.this, name, (Object[]) args);
+                    } catch (Exception x) {
+                        throw new GradleException("Invalid repository spec: " + name, x);
+                    }
                 return RepositorySpec.this.createAndConfigureHost(name, args);
             }
         };
@@ -0,0 +1,168 @@
+package com.brambolt.wrench.trigger;
+
+import com.brambolt.wrench.template.Template;
+import com.brambolt.wrench.template.Templates;
+import org.apache.tools.zip.UnixStat;
+import org.apache.tools.zip.ZipEntry;
+import org.apache.tools.zip.ZipOutputStream;
+import org.gradle.api.GradleException;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+import static com.brambolt.util.Resources.stream;
+
+/**
+ * Writes trigger archives directly from the trigger resources and templates,
+ * without generating the trigger directory first.
+ *
+ * The archives are reproducible: the entries are written in path order, with
+ * the same constant timestamp Gradle uses for reproducible archives, and with
+ * fixed permissions. Entries that are compressed already are stored, and the
+ * rest are deflated.
+ */
+public final class TriggerArchives {
+
+    /**
+     * The timestamp of every entry, the same as Gradle uses when archive
+     * tasks have <code>preserveFileTimestamps = false</code>.
+     */
+    static final long CONSTANT_ENTRY_TIME =
+        new GregorianCalendar(1980, Calendar.FEBRUARY, 1, 0, 0, 0).getTimeInMillis();
+
+    static final int DIRECTORY_MODE = UnixStat.DIR_FLAG | 0755;
+
+    static final int FILE_MODE = UnixStat.FILE_FLAG | 0644;
+
+    static final int EXECUTABLE_MODE = UnixStat.FILE_FLAG | 0755;
+
+    /**
+     * The wrapper resources are the same in every archive, and are read once.
+     */
+    private static final Map<String, byte[]> RESOURCES = new ConcurrentHashMap<>();
+
+    private TriggerArchives() {}
+
+    /**
+     * Writes a trigger archive.
+     *
+     * @param archiveFile The archive to write
+     * @param context The template variables
+     * @return The archive file
+     */
+    public static File write(File archiveFile, Map<String, String> context) {
+        File parentDir = archiveFile.getAbsoluteFile().getParentFile();
+        if (!parentDir.isDirectory() && !parentDir.mkdirs())
+            throw new GradleException("Unable to create " + parentDir.getAbsolutePath());
+        try (OutputStream stream = new BufferedOutputStream(Files.newOutputStream(archiveFile.toPath()))) {
+            write(stream, context);
+        } catch (IOException x) {
+            throw new GradleException("Unable to write " + archiveFile.getAbsolutePath(), x);
+        }
+        return archiveFile;
+    }
+
+    /**
+     * Writes a trigger archive to the parameter stream, which is not closed.
+     *
+     * @param stream The stream to write the archive to
+     * @param context The template variables
+     * @throws IOException If the archive can't be written
+     */
+    public static void write(OutputStream stream, Map<String, String> context) throws IOException {
+        ZipOutputStream zip = new ZipOutputStream(stream);
+        zip.setEncoding(StandardCharsets.UTF_8.name());
+        for (Map.Entry<String, byte[]> entry: createEntries(context).entrySet()) {
+            if (null == entry.getValue())
+                putDirectory(zip, entry.getKey());
+            else putFile(zip, entry.getKey(), entry.getValue());
+        }
+        zip.finish();
+    }
+
+    /**
+     * Creates the archive entries in path order. Directories have null
+     * content.
+     */
+    static SortedMap<String, byte[]> createEntries(Map<String, String> context) {
+        SortedMap<String, byte[]> entries = new TreeMap<>();
+        for (String relativePath: GenerateTrigger.WRAPPER_PATHS) {
+            for (int i = relativePath.indexOf('/'); i >= 0; i = relativePath.indexOf('/', i + 1))
+                entries.put(relativePath.substring(0, i + 1), null);
+            entries.put(relativePath, RESOURCES.computeIfAbsent(
+                GenerateTrigger.RESOURCE_ROOT + "/" + relativePath, TriggerArchives::readResource));
+        }
+        for (String relativePath: GenerateTrigger.TEMPLATE_PATHS) {
+            String resourcePath = GenerateTrigger.RESOURCE_ROOT + "/" + relativePath;
+            String rendered = Templates.fromResource(resourcePath, Template.Syntax.REFERENCE).render(context);
+            entries.put(
+                relativePath.substring(0, relativePath.length() - ".vtl".length()),
+                rendered.getBytes(StandardCharsets.UTF_8));
+        }
+        return entries;
+    }
+
+    static void putDirectory(ZipOutputStream zip, String path) throws IOException {
+        ZipEntry entry = new ZipEntry(path);
+        entry.setTime(CONSTANT_ENTRY_TIME);
+        entry.setUnixMode(DIRECTORY_MODE);
+        entry.setMethod(ZipEntry.STORED);
+        entry.setSize(0);
+        entry.setCompressedSize(0);
+        entry.setCrc(0);
+        zip.putNextEntry(entry);
+        zip.closeEntry();
+    }
+
+    static void putFile(ZipOutputStream zip, String path, byte[] content) throws IOException {
+        ZipEntry entry = new ZipEntry(path);
+        entry.setTime(CONSTANT_ENTRY_TIME);
+        entry.setUnixMode(isExecutable(path) ? EXECUTABLE_MODE : FILE_MODE);
+        if (isCompressed(path)) {
+            CRC32 crc = new CRC32();
+            crc.update(content, 0, content.length);
+            entry.setMethod(ZipEntry.STORED);
+            entry.setSize(content.length);
+            entry.setCompressedSize(content.length);
+            entry.setCrc(crc.getValue());
+        } else entry.setMethod(ZipEntry.DEFLATED);
+        zip.putNextEntry(entry);
+        zip.write(content, 0, content.length);
+        zip.closeEntry();
+    }
+
+    static boolean isExecutable(String path) {
+        return "gradlew".equals(path);
+    }
+
+    static boolean isCompressed(String path) {
+        return path.endsWith(".jar") || path.endsWith(".zip");
+    }
+
+    static byte[] readResource(String resourcePath) {
+        try (InputStream input = stream(resourcePath)) {
+            if (null == input)
+                throw new GradleException("No resource found at " + resourcePath);
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            for (int count = input.read(buffer); count >= 0; count = input.read(buffer))
+                output.write(buffer, 0, count);
+            return output.toByteArray();
+        } catch (IOException x) {
+            throw new GradleException("Unable to read " + resourcePath, x);
+        }
+    }
+}
@@ -6,6 +6,15 @@ import org.gradle.api.Project;
 
 import java.io.File;
 
+/**
+ * The trigger of a repository for a single host.
+ *
+ * A specification refers to the project, through its repository, so the
+ * trigger tasks do not keep it as task state. They derive what they need
+ * from it, like the contexts and output locations, as each trigger is
+ * added while the project is configured, and their actions only read task
+ * properties.
+ */
 public class TriggerSpec {
 
     public static TriggerSpec create(RepositorySpec repositorySpec, String hostname) {
@@ -54,6 +63,14 @@ public class TriggerSpec {
         return getTriggerDir(new File(getBuildDir(), "triggers"));
     }
 
+    /**
+     * The archive written by the streaming packager, with the same name as
+     * the archive from the zip task.
+     */
+    public File getArchiveFile() {
+        return new File(new File(getBuildDir(), "distributions"), TriggersBuildPlugin.createZipArchiveFileName(this));
+    }
+
     public File getTemplatesDir() {
         return getTriggerDir(new File(getBuildDir(), "vtl"));
     }
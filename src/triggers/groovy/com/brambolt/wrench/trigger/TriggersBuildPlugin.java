@@ -1,17 +1,19 @@
 package com.brambolt.wrench.trigger;
 
-import com.brambolt.gradle.velocity.tasks.Velocity;
 import com.brambolt.gradle.BuildPlugins;
 import groovy.lang.Closure;
 import org.gradle.api.Plugin;
 import org.gradle.api.Project;
+import org.gradle.api.Task;
 import org.gradle.api.artifacts.Configuration;
 import org.gradle.api.artifacts.PublishArtifact;
 import org.gradle.api.publish.maven.MavenArtifact;
 import org.gradle.api.tasks.bundling.Zip;
 
+import java.io.File;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 import static com.brambolt.BuildPlugins.configureArtifactPublishing;
@@ -39,6 +41,15 @@ import static com.brambolt.BuildPlugins.configureArtifactPublishing;
  * </pre>
  *
  * The triggers generation task creates this structure in the build directory.
+ *
+ * With <code>batch true</code> at the top of the triggers block, a single
+ * <code>generateTriggers</code> task generates all trigger directories in
+ * parallel, instead of one generation task per trigger. With
+ * <code>streaming true</code>, the trigger archives are written directly,
+ * without generating the trigger directories first. With
+ * <code>aggregated true</code>, one archive with the triggers of all hosts
+ * and a host index are published per repository, instead of one archive
+ * per host.
  */
 public class TriggersBuildPlugin implements Plugin<Project> {
 
@@ -66,41 +77,160 @@ public class TriggersBuildPlugin implements Plugin<Project> {
     }
 
     public static void configureTriggerTasks(Project project, TriggerSpec triggerSpec) {
-        GenerateTrigger generateTrigger = configureGenerateTriggerTask(project, triggerSpec);
-        Velocity velocity = configureVelocityTask(project, triggerSpec, generateTrigger.getName());
-        Zip zip = configureZipTask(project, triggerSpec, velocity);
+        TriggersExtension extension = getExtension(project);
+        if (extension.isAggregated()) {
+            configureAggregateTriggersTask(project, triggerSpec.getRepositorySpec()).trigger(triggerSpec);
+            return;
+        }
+        if (extension.isStreaming()) {
+            Task packageTrigger = extension.isBatch()
+                ? configureGenerateTriggersTask(project).trigger(triggerSpec)
+                : configurePackageTriggerTask(project, triggerSpec);
+            configureArchivePublishing(project, triggerSpec, packageTrigger);
+            return;
+        }
+        Task generateTrigger = extension.isBatch()
+            ? configureGenerateTriggersTask(project).trigger(triggerSpec)
+            : configureGenerateTriggerTask(project, triggerSpec);
+        Zip zip = configureZipTask(project, triggerSpec, generateTrigger);
         configureZipPublishing(project, triggerSpec, zip);
     }
 
+    /**
+     * Finds or creates the batch task that generates all trigger directories
+     * of the project. This is used instead of a task per trigger when the
+     * triggers extension is in batch mode.
+     *
+     * @param project The project to find or create the task in
+     * @return The batch generation task
+     */
+    public static GenerateTriggers configureGenerateTriggersTask(Project project) {
+        Task existing = project.getTasks().findByName(GenerateTriggers.DEFAULT_TASK_NAME);
+        if (null != existing)
+            return (GenerateTriggers) existing;
+        GenerateTriggers task = project.getTasks().create(GenerateTriggers.DEFAULT_TASK_NAME, GenerateTriggers.class);
+        task.setArchive(getExtension(project).isStreaming());
+        return task;
+    }
+
+    /**
+     * Creates the task that writes the trigger archive directly, when the
+     * triggers extension is in streaming mode. The archive is the same as the
+     * one the zip task makes from the trigger directory.
+     *
+     * @param project The project to create the task in
+     * @param triggerSpec The trigger to package
+     * @return The created task
+     */
+    public static PackageTrigger configurePackageTriggerTask(Project project, TriggerSpec triggerSpec) {
+        PackageTrigger task = project.getTasks()
+            .create(getPackageTriggerTaskName(triggerSpec), PackageTrigger.class)
+            .configure(triggerSpec);
+        task.setContext(createVelocityContext(project, triggerSpec));
+        return task;
+    }
+
+    public static String getPackageTriggerTaskName(TriggerSpec triggerSpec) {
+        return "packageTrigger_" + triggerSpec.getName();
+    }
+
+    /**
+     * Finds or creates the task that writes the aggregated trigger archive
+     * and host index for a repository, when the triggers extension is in
+     * aggregated mode. Both are published when the task is created.
+     *
+     * @param project The project to find or create the task in
+     * @param repositorySpec The repository to aggregate the triggers for
+     * @return The aggregation task
+     */
+    public static AggregateTriggers configureAggregateTriggersTask(Project project, RepositorySpec repositorySpec) {
+        String taskName = getAggregateTriggersTaskName(repositorySpec);
+        Task existing = project.getTasks().findByName(taskName);
+        if (null != existing)
+            return (AggregateTriggers) existing;
+        AggregateTriggers task = project.getTasks()
+            .create(taskName, AggregateTriggers.class)
+            .configure(repositorySpec);
+        configureAggregatePublishing(project, repositorySpec, task);
+        return task;
+    }
+
+    public static String getAggregateTriggersTaskName(RepositorySpec repositorySpec) {
+        return "aggregateTriggers_" + repositorySpec.getRepositoryName();
+    }
+
+    public static void configureAggregatePublishing(Project project, RepositorySpec repositorySpec, AggregateTriggers task) {
+        String classifier = repositorySpec.getRepositoryName();
+        Configuration configuration = project.getConfigurations().maybeCreate(classifier);
+        Map<File, String> files = new LinkedHashMap<>();
+        files.put(task.getArchiveFile(), "zip");
+        files.put(task.getIndexFile(), TriggerIndex.FILE_EXTENSION);
+        files.forEach((file, extension) -> {
+            PublishArtifact artifact = project.getArtifacts().add(
+                configuration.getName(), file, published -> {
+                    published.setType(extension);
+                    published.setExtension(extension);
+                    published.builtBy(task);
+                });
+            configureArtifactPublishing(project, artifact, new Closure<Void>(artifact) {
+                @Override
+                public Void call() {
+                    MavenArtifact delegate = (MavenArtifact) getDelegate();
+                    delegate.setClassifier(classifier);
+                    return null;
+                }
+            });
+        });
+    }
+
+    /**
+     * Creates the task that generates the trigger directory. The templates
+     * are rendered directly into the trigger directory with the shared
+     * template cache, instead of through a Velocity task per trigger.
+     *
+     * @param project The project to create the task in
+     * @param triggerSpec The trigger to generate
+     * @return The created task
+     */
     public static GenerateTrigger configureGenerateTriggerTask(Project project, TriggerSpec triggerSpec) {
-        return project.getTasks().create(getGenerateTriggerTaskName(triggerSpec), GenerateTrigger.class).configure(triggerSpec);
+        GenerateTrigger task = project.getTasks()
+            .create(getGenerateTriggerTaskName(triggerSpec), GenerateTrigger.class)
+            .configure(triggerSpec);
+        task.setContext(createVelocityContext(project, triggerSpec));
+        return task;
     }
 
     public static String getGenerateTriggerTaskName(TriggerSpec triggerSpec) {
         return "generateTrigger_" + triggerSpec.getName();
     }
 
-    public static Velocity configureVelocityTask(Project project, TriggerSpec triggerSpec, String... taskDependencies) {
-        return BuildPlugins.configureVelocityTask(
-            project,
-            getVelocityTaskName(triggerSpec),
-            triggerSpec.getTemplatesDir().getAbsolutePath(),
-            triggerSpec.getTriggerDir(),
-            createVelocityContext(project, triggerSpec),
-            taskDependencies);
+    public static Map<String, Object> createVelocityContext(Project project, TriggerSpec triggerSpec) {
+        return createVelocityContext(createSharedContext(project), triggerSpec);
     }
 
-    public static String getVelocityTaskName(TriggerSpec triggerSpec) {
-        return "velocity_" + triggerSpec.getName();
+    /**
+     * Creates the template variables that are the same for every trigger.
+     * Reading the project properties takes a snapshot of all of them, so
+     * this should be done once per build rather than once per trigger.
+     *
+     * @param project The project to read the variables from
+     * @return The variables common to all triggers
+     */
+    public static Map<String, Object> createSharedContext(Project project) {
+        Map<String, ?> properties = project.getProperties();
+        Map<String, Object> context = new HashMap<>();
+        context.put("clientName", properties.get("clientName"));
+        context.put("release", BuildPlugins.getProductVersion(project));
+        context.put("systemName", properties.get("systemName"));
+        context.put("bramboltVersion", BuildPlugins.getBramboltVersion(project));
+        return context;
     }
 
-    public static Map<String, Object> createVelocityContext(Project project, TriggerSpec triggerSpec) {
-        Map<String, Object> context = new HashMap<>();
+    public static Map<String, Object> createVelocityContext(Map<String, ?> sharedContext, TriggerSpec triggerSpec) {
+        Map<String, Object> context = new HashMap<>(sharedContext);
         context.put("baseDirectory", triggerSpec.getBaseDirectoryPath());
-        context.put("clientName", project.getProperties().get("clientName"));
         context.put("mavenContextUrl", triggerSpec.getRepositoryContextUrl());
         context.put("mavenRepoKey", triggerSpec.getRepositoryKey());
-        context.put("release", BuildPlugins.getProductVersion(project));
         context.put("releaseGroupId", triggerSpec.getGroupId());
         context.put("releaseArtifactId", triggerSpec.getReleaseArtifactId());
         context.put("stagingGroupId", triggerSpec.getGroupId());
@@ -108,19 +238,33 @@ public class TriggersBuildPlugin implements Plugin<Project> {
         context.put("stagingArtifactType", triggerSpec.getStagingArtifactType());
         context.put("stagingArtifactPackaging", triggerSpec.getStagingArtifactPackaging());
         context.put("stagingTaskArg", triggerSpec.getStagingTask());
-        context.put("systemName", project.getProperties().get("systemName"));
-        context.put("bramboltVersion", BuildPlugins.getBramboltVersion(project));
         context.put("versionHistorySize", triggerSpec.getVersionHistorySize());
         return context;
     }
 
-    public static Zip configureZipTask(Project project, TriggerSpec triggerSpec, Velocity velocity) {
+    /**
+     * Converts template variables to task input values. Variables with null
+     * values are left out, and their references are rendered verbatim.
+     *
+     * @param context The template variables
+     * @return The variables with string values
+     */
+    public static Map<String, String> toContext(Map<String, ?> context) {
+        Map<String, String> values = new HashMap<>();
+        context.forEach((name, value) -> {
+            if (null != value)
+                values.put(name, value.toString());
+        });
+        return values;
+    }
+
+    public static Zip configureZipTask(Project project, TriggerSpec triggerSpec, Task generateTrigger) {
         return BuildPlugins.createZipTask(
             project,
             triggerSpec.getName(),
             createZipArchiveFileName(triggerSpec),
             Collections.singletonList(triggerSpec.getTriggerDir().getAbsolutePath()),
-            Collections.singletonList(velocity.getName()));
+            Collections.singletonList(generateTrigger.getName()));
     }
 
     public static String createZipArchiveFileName(TriggerSpec triggerSpec) {
@@ -130,6 +274,29 @@ public class TriggersBuildPlugin implements Plugin<Project> {
     public static void configureZipPublishing(Project project, TriggerSpec triggerSpec, Zip zip) {
         Configuration configuration = project.getConfigurations().maybeCreate(triggerSpec.getName());
         PublishArtifact artifact = BuildPlugins.addZipArtifact(project, zip, configuration.getName());
+        configurePublishing(project, triggerSpec, artifact);
+    }
+
+    /**
+     * Publishes the archive written by the streaming packager, in place of
+     * the zip task archive.
+     *
+     * @param project The project to publish from
+     * @param triggerSpec The trigger to publish
+     * @param task The task that writes the archive
+     */
+    public static void configureArchivePublishing(Project project, TriggerSpec triggerSpec, Task task) {
+        Configuration configuration = project.getConfigurations().maybeCreate(triggerSpec.getName());
+        PublishArtifact artifact = project.getArtifacts().add(
+            configuration.getName(), triggerSpec.getArchiveFile(), published -> {
+                published.setType("zip");
+                published.setExtension("zip");
+                published.builtBy(task);
+            });
+        configurePublishing(project, triggerSpec, artifact);
+    }
+
+    static void configurePublishing(Project project, TriggerSpec triggerSpec, PublishArtifact artifact) {
         configureArtifactPublishing(project, artifact, new Closure<Void>(artifact) {
             @Override
             public Void call() {
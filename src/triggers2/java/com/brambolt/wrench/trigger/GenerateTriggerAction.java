@@ -0,0 +1,56 @@
+package com.brambolt.wrench.trigger;
+
+import org.gradle.api.GradleException;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.logging.Logging;
+import org.gradle.api.provider.MapProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.workers.WorkAction;
+import org.gradle.workers.WorkParameters;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Generates one trigger directory, or writes one trigger archive when the
+ * archive file is set, for the batch task. A trigger directory is generated
+ * from scratch. The stamp of what the trigger was generated from is recorded
+ * with a fingerprint of the output once it is complete.
+ */
+public abstract class GenerateTriggerAction implements WorkAction<GenerateTriggerAction.Parameters> {
+
+    public interface Parameters extends WorkParameters {
+
+        DirectoryProperty getTriggerDir();
+
+        RegularFileProperty getArchiveFile();
+
+        MapProperty<String, String> getContext();
+
+        RegularFileProperty getStampFile();
+
+        Property<String> getStamp();
+    }
+
+    @Override
+    public void execute() {
+        Parameters parameters = getParameters();
+        File output;
+        if (parameters.getArchiveFile().isPresent())
+            output = TriggerArchives.write(parameters.getArchiveFile().get().getAsFile(), parameters.getContext().get());
+        else {
+            output = parameters.getTriggerDir().get().getAsFile();
+            // Start from an empty directory, so no stale or added files remain:
+            try {
+                GenerateTriggers.delete(output);
+            } catch (IOException x) {
+                throw new GradleException("Unable to delete " + output.getAbsolutePath(), x);
+            }
+            GenerateTrigger.generate(
+                output, parameters.getContext().get(), Logging.getLogger(GenerateTriggerAction.class));
+        }
+        GenerateTriggers.writeStamp(
+            parameters.getStampFile().get().getAsFile(), parameters.getStamp().get(), output);
+    }
+}
@@ -0,0 +1,145 @@
+package com.brambolt.wrench.trigger;
+
+import org.gradle.api.GradleException;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * The host index of an aggregated trigger archive.
+ *
+ * The aggregated archive holds the trigger archive of each host as a stored
+ * entry, so the bytes of each trigger archive are contiguous in the
+ * aggregated archive. The index records where they are, and a host can
+ * fetch its own trigger with a single range read instead of downloading
+ * the triggers of the whole repository.
+ *
+ * The index is a text file with a line <code>host=offset,length,sha256</code>
+ * per host, in host order.
+ */
+public class TriggerIndex {
+
+    public static final String FILE_EXTENSION = "index";
+
+    /**
+     * The location of a single trigger archive in the aggregated archive.
+     */
+    public static class Entry {
+
+        private final long offset;
+
+        private final long length;
+
+        private final String checksum;
+
+        public Entry(long offset, long length, String checksum) {
+            this.offset = offset;
+            this.length = length;
+            this.checksum = checksum;
+        }
+
+        public long getOffset() {
+            return offset;
+        }
+
+        public long getLength() {
+            return length;
+        }
+
+        public String getChecksum() {
+            return checksum;
+        }
+
+        String format() {
+            return offset + "," + length + "," + checksum;
+        }
+
+        static Entry parse(String value) {
+            String[] parts = value.split(",");
+            if (3 != parts.length)
+                throw new GradleException("Invalid trigger index entry: " + value);
+            return new Entry(Long.parseLong(parts[0]), Long.parseLong(parts[1]), parts[2]);
+        }
+    }
+
+    private final SortedMap<String, Entry> entries = new TreeMap<>();
+
+    public Map<String, Entry> getEntries() {
+        return entries;
+    }
+
+    public Entry getEntry(String hostname) {
+        Entry entry = entries.get(hostname);
+        if (null == entry)
+            throw new GradleException("No trigger indexed for " + hostname);
+        return entry;
+    }
+
+    public void put(String hostname, Entry entry) {
+        entries.put(hostname, entry);
+    }
+
+    public static TriggerIndex read(File indexFile) {
+        TriggerIndex index = new TriggerIndex();
+        try (BufferedReader reader = Files.newBufferedReader(indexFile.toPath(), StandardCharsets.UTF_8)) {
+            for (String line = reader.readLine(); null != line; line = reader.readLine()) {
+                int separator = line.indexOf('=');
+                if (line.trim().isEmpty() || line.startsWith("#") || separator < 0)
+                    continue;
+                index.put(line.substring(0, separator), Entry.parse(line.substring(separator + 1)));
+            }
+        } catch (IOException x) {
+            throw new GradleException("Unable to read " + indexFile.getAbsolutePath(), x);
+        }
+        return index;
+    }
+
+    public File write(File indexFile) {
+        try (BufferedWriter writer = Files.newBufferedWriter(indexFile.toPath(), StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, Entry> entry: entries.entrySet()) {
+                writer.write(entry.getKey() + "=" + entry.getValue().format());
+                writer.newLine();
+            }
+        } catch (IOException x) {
+            throw new GradleException("Unable to write " + indexFile.getAbsolutePath(), x);
+        }
+        return indexFile;
+    }
+
+    /**
+     * Reads the trigger archive of a single host from an aggregated archive,
+     * for example in a file-based repository, and verifies its checksum.
+     *
+     * @param archiveFile The aggregated archive
+     * @param hostname The host to read the trigger archive for
+     * @return The trigger archive bytes
+     */
+    public byte[] fetch(File archiveFile, String hostname) {
+        Entry entry = getEntry(hostname);
+        if (entry.getLength() > Integer.MAX_VALUE)
+            throw new GradleException("Trigger for " + hostname + " is too large: " + entry.getLength());
+        ByteBuffer buffer = ByteBuffer.allocate((int) entry.getLength());
+        try (FileChannel channel = FileChannel.open(archiveFile.toPath(), StandardOpenOption.READ)) {
+            while (buffer.hasRemaining())
+                if (channel.read(buffer, entry.getOffset() + buffer.position()) < 0)
+                    throw new GradleException("Unexpected end of " + archiveFile.getAbsolutePath());
+        } catch (IOException x) {
+            throw new GradleException("Unable to read " + archiveFile.getAbsolutePath(), x);
+        }
+        byte[] bytes = buffer.array();
+        String checksum = GenerateTriggers.toHex(GenerateTriggers.createDigest().digest(bytes));
+        if (!checksum.equals(entry.getChecksum()))
+            throw new GradleException("Checksum mismatch for the trigger for " + hostname);
+        return bytes;
+    }
+}
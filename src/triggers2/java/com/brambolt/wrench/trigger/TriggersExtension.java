@@ -27,6 +27,12 @@ public class TriggersExtension {
 
     private Integer versionHistorySize;
 
+    private boolean batch = false;
+
+    private boolean streaming = false;
+
+    private boolean aggregated = false;
+
     private final Map<String, RepositorySpec> repositories = new HashMap<>();
 
     public TriggersExtension(Project project) {
@@ -41,7 +47,19 @@ public class TriggersExtension {
         return repositories;
     }
 
+    /**
+     * Configures the repository named by the missing method. A call that
+     * names an extension method, with arguments Groovy could not match, is
+     * dispatched by argument count and type instead, or rejected.
+     *
+     * @param name The repository name
+     * @param args The arguments, the repository closure
+     * @return This extension, or the result of the dispatched method
+     */
     Object methodMissing(String name, Object args) {
+        DispatchTable methods = DispatchTable.of(TriggersExtension.class);
+        if (methods.contains(name) && args instanceof Object[])
+            return methods.invoke(this, name, (Object[]) args);
         throwIfNotClosure(name, args);
         return configureRepository(name, (Closure<?>) ((Object[]) args)[0]);
     }
@@ -75,6 +93,69 @@ public class TriggersExtension {
             throw new IllegalStateException("Repository " + name + " exists already");
     }
 
+    public boolean isBatch() {
+        return batch;
+    }
+
+    public void setBatch(boolean batch) {
+        this.batch = batch;
+    }
+
+    /**
+     * Generates all triggers with one task instead of a task per trigger.
+     * The tasks are created as the repositories are configured, so this
+     * must come before the repositories in the triggers block.
+     *
+     * @param batch Whether to generate the triggers in batch
+     */
+    public void batch(boolean batch) {
+        if (!repositories.isEmpty())
+            throw new IllegalStateException("Batch mode must be set before any repository is configured");
+        setBatch(batch);
+    }
+
+    public boolean isStreaming() {
+        return streaming;
+    }
+
+    public void setStreaming(boolean streaming) {
+        this.streaming = streaming;
+    }
+
+    /**
+     * Writes the trigger archives directly, instead of generating the trigger
+     * directories and zipping them. Like batch mode, this must come before
+     * the repositories in the triggers block.
+     *
+     * @param streaming Whether to write the trigger archives directly
+     */
+    public void streaming(boolean streaming) {
+        if (!repositories.isEmpty())
+            throw new IllegalStateException("Streaming mode must be set before any repository is configured");
+        setStreaming(streaming);
+    }
+
+    public boolean isAggregated() {
+        return aggregated;
+    }
+
+    public void setAggregated(boolean aggregated) {
+        this.aggregated = aggregated;
+    }
+
+    /**
+     * Publishes one archive with the triggers of all hosts per repository,
+     * with a host index, instead of one archive per host. Like batch mode,
+     * this must come before the repositories in the triggers block.
+     *
+     * @param aggregated Whether to publish the triggers per repository
+     */
+    public void aggregated(boolean aggregated) {
+        if (!repositories.isEmpty())
+            throw new IllegalStateException("Aggregated mode must be set before any repository is configured");
+        setAggregated(aggregated);
+    }
+
     public String getBaseDirectoryPath() {
         return baseDirectoryPath;
     }